@@ -0,0 +1,37 @@
+plugins {
+    id("com.android.library")
+    id("androidx.benchmark")
+    kotlin("android")
+}
+
+android {
+    compileSdk = 33
+
+    defaultConfig {
+        minSdk = 22
+        targetSdk = 33
+
+        testInstrumentationRunner = "androidx.benchmark.junit4.AndroidBenchmarkRunner"
+    }
+
+    // Benchmarks must run against a non-debuggable build to be representative.
+    testBuildType = "release"
+
+    compileOptions {
+        sourceCompatibility = JavaVersion.VERSION_1_8
+        targetCompatibility = JavaVersion.VERSION_1_8
+    }
+
+    kotlinOptions {
+        jvmTarget = "1.8"
+    }
+}
+
+dependencies {
+    implementation(project(":library"))
+    implementation("io.noties.markwon:core:4.6.2")
+
+    androidTestImplementation("androidx.benchmark:benchmark-junit4:1.1.1")
+    androidTestImplementation("androidx.test:runner:1.5.1")
+    androidTestImplementation("androidx.test.ext:junit:1.1.4")
+}
@@ -0,0 +1,75 @@
+package se.ingenuity.markdownview.benchmark
+
+import android.content.Context
+import android.view.ContextThemeWrapper
+import androidx.test.platform.app.InstrumentationRegistry
+
+/**
+ * Generated markdown documents of varying size and feature mix.
+ */
+object Corpus {
+    enum class Size(val blocks: Int) {
+        SMALL(10),
+        MEDIUM(100),
+        LARGE(1000)
+    }
+
+    enum class Mix {
+        HEADINGS,
+        NESTED_LISTS,
+        CODE_BLOCKS,
+        LINK_DENSE,
+        MIXED
+    }
+
+    /**
+     * One theme for all benchmarks, a new theme would miss every process-wide cache keyed on it.
+     */
+    val context: Context = ContextThemeWrapper(
+        InstrumentationRegistry.getInstrumentation().targetContext,
+        R.style.Theme_Benchmark
+    )
+
+    fun parameters(): List<Array<Any>> = Mix.values().flatMap { mix ->
+        Size.values().map { size -> arrayOf<Any>(mix, size) }
+    }
+
+    fun generate(mix: Mix, size: Size): String = buildString {
+        repeat(size.blocks) { index ->
+            appendBlock(mix, index)
+            append("\n\n")
+        }
+    }
+
+    private fun StringBuilder.appendBlock(mix: Mix, index: Int) {
+        when (mix) {
+            Mix.HEADINGS -> {
+                append("#".repeat(index % 3 + 1)).append(" Heading ").append(index)
+                append("\n\nParagraph ").append(index)
+                append(" with *emphasis* and **strong** text.")
+            }
+            Mix.NESTED_LISTS -> {
+                append("- Item ").append(index).append('\n')
+                append("  - Nested *item* ").append(index).append('\n')
+                append("    1. Deep **item** ").append(index).append('\n')
+                append("    2. Deeper `code` ").append(index).append('\n')
+                append("- Item ").append(index + 1)
+            }
+            Mix.CODE_BLOCKS -> {
+                append("```kotlin\n")
+                append("fun block").append(index).append("() {\n")
+                append("    println(\"").append(index).append("\")\n")
+                append("}\n")
+                append("```\n\n")
+                append("> Quote ").append(index).append(" with `inline code`.")
+            }
+            Mix.LINK_DENSE -> {
+                append("See [link ").append(index).append("](https://example.com/")
+                append(index).append("), [docs](https://example.com/docs/").append(index)
+                append(") and [more *links*](https://example.com/more/").append(index)
+                append(") for **details**.")
+            }
+            Mix.MIXED -> appendBlock(Mix.values()[index % (Mix.values().size - 1)], index)
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package se.ingenuity.markdownview.benchmark
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.text.Spanned
+import android.text.style.LineBackgroundSpan
+import android.view.ContextThemeWrapper
+import android.view.View
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+import se.ingenuity.markdownview.MarkdownTextView
+
+/**
+ * Cost of drawing the line backgrounds of code blocks and block quotes, one frame per iteration,
+ * per `mdLineBackgroundMode`.
+ */
+@RunWith(Parameterized::class)
+class LineBackgroundSpanBenchmark(private val mode: String) {
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val paint = Paint()
+    private val canvas = Canvas(Bitmap.createBitmap(WIDTH, WIDTH, Bitmap.Config.ARGB_8888))
+
+    private lateinit var view: MarkdownTextView
+
+    @Before
+    fun setUp() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync {
+            val context = if (mode == MODE_BLOCK) blockBackgroundContext else Corpus.context
+            view = MarkdownTextView(context)
+            view.setMarkdown(Corpus.generate(Corpus.Mix.CODE_BLOCKS, Corpus.Size.MEDIUM))
+            view.measure(
+                View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED)
+            )
+            view.layout(0, 0, view.measuredWidth, view.measuredHeight)
+        }
+    }
+
+    @Test
+    fun drawBackground() {
+        val layout = view.layout
+        val text = view.text as Spanned
+        val spans = text.getSpans(0, text.length, LineBackgroundSpan::class.java)
+        val lines = spans.map { span ->
+            layout.getLineForOffset(text.getSpanStart(span))..
+                    layout.getLineForOffset(text.getSpanEnd(span))
+        }
+        benchmarkRule.measureRepeated {
+            for (i in spans.indices) {
+                for (line in lines[i]) {
+                    spans[i].drawBackground(
+                        canvas,
+                        paint,
+                        0,
+                        layout.width,
+                        layout.getLineTop(line),
+                        layout.getLineBaseline(line),
+                        layout.getLineBottom(line),
+                        text,
+                        layout.getLineStart(line),
+                        layout.getLineEnd(line),
+                        line
+                    )
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val WIDTH = 1080
+        private const val MODE_LINE = "line"
+        private const val MODE_BLOCK = "block"
+
+        private val blockBackgroundContext by lazy {
+            ContextThemeWrapper(Corpus.context, R.style.ThemeOverlay_Benchmark_BlockBackground)
+        }
+
+        @JvmStatic
+        @Parameterized.Parameters(name = "{0}")
+        fun parameters() = listOf(MODE_LINE, MODE_BLOCK)
+    }
+}
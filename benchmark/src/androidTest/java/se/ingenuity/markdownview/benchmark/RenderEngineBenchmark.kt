@@ -0,0 +1,58 @@
+package se.ingenuity.markdownview.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+import se.ingenuity.markdownview.MarkdownRenderEngine
+import se.ingenuity.markdownview.MarkdownRenderer
+import java.util.concurrent.CountDownLatch
+
+/**
+ * Throughput of [MarkdownRenderEngine] for a batch of documents by number of workers, from one
+ * up to one per core.
+ */
+@RunWith(Parameterized::class)
+class RenderEngineBenchmark(private val threads: Int) {
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val documents = List(DOCUMENTS) {
+        Corpus.generate(Corpus.Mix.MIXED, Corpus.Size.SMALL) + "\n\n#$it"
+    }
+
+    private val engine = MarkdownRenderEngine(MarkdownRenderer(Corpus.context), threads)
+
+    @After
+    fun tearDown() {
+        engine.shutdown()
+    }
+
+    @Test
+    fun renderBatch() {
+        benchmarkRule.measureRepeated {
+            val latch = CountDownLatch(documents.size)
+            documents.forEach { markdown ->
+                engine.render(markdown) { latch.countDown() }
+            }
+            latch.await()
+        }
+    }
+
+    companion object {
+        private const val DOCUMENTS = 48
+
+        @JvmStatic
+        @Parameterized.Parameters(name = "threads={0}")
+        fun parameters(): List<Int> {
+            val cores = Runtime.getRuntime().availableProcessors()
+            return generateSequence(1) { it * 2 }
+                .takeWhile { it < cores }
+                .plus(cores)
+                .toList()
+        }
+    }
+}
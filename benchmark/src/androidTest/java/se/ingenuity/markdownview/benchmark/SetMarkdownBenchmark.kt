@@ -0,0 +1,68 @@
+package se.ingenuity.markdownview.benchmark
+
+import android.view.View
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+import se.ingenuity.markdownview.MarkdownTextView
+
+/**
+ * End to end cost of [MarkdownTextView.setMarkdown], i.e. parse, render and set text.
+ */
+@RunWith(Parameterized::class)
+class SetMarkdownBenchmark(mix: Corpus.Mix, size: Corpus.Size) {
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val markdown = Corpus.generate(mix, size)
+
+    private lateinit var view: MarkdownTextView
+
+    @Before
+    fun setUp() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync {
+            view = MarkdownTextView(Corpus.context)
+        }
+    }
+
+    @Test
+    fun setMarkdown() {
+        measureOnMainThread {
+            view.setMarkdown(markdown, true)
+        }
+    }
+
+    @Test
+    fun setMarkdownAndMeasure() {
+        val widthMeasureSpec = View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY)
+        val heightMeasureSpec = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED)
+        measureOnMainThread {
+            view.setMarkdown(markdown, true)
+            view.measure(widthMeasureSpec, heightMeasureSpec)
+        }
+    }
+
+    /**
+     * Runs the whole measured loop on the main thread, where views set their text in practice.
+     */
+    private fun measureOnMainThread(block: () -> Unit) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync {
+            benchmarkRule.measureRepeated {
+                block()
+            }
+        }
+    }
+
+    companion object {
+        private const val WIDTH = 1080
+
+        @JvmStatic
+        @Parameterized.Parameters(name = "{0}_{1}")
+        fun parameters() = Corpus.parameters()
+    }
+}
@@ -0,0 +1,86 @@
+package se.ingenuity.markdownview.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import io.noties.markwon.Markwon
+import io.noties.markwon.RenderPropsImpl
+import io.noties.markwon.core.CoreProps
+import org.commonmark.node.Emphasis
+import org.commonmark.node.FencedCodeBlock
+import org.commonmark.node.Heading
+import org.commonmark.node.Link
+import org.commonmark.node.ListItem
+import org.commonmark.node.Node
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import se.ingenuity.markdownview.R
+import se.ingenuity.markdownview.util.MarkdownViewPlugin
+
+/**
+ * Per node cost of the span factories registered by [MarkdownViewPlugin], which is where the
+ * styles are turned into spans.
+ */
+@RunWith(AndroidJUnit4::class)
+class SpanFactoryBenchmark {
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val context = Corpus.context
+
+    private val markwon = Markwon.builder(context)
+        .usePlugin(MarkdownViewPlugin(context, null, R.attr.markdownStyles, 0))
+        .build()
+
+    @Test
+    fun emphasis() {
+        measureSpans(Emphasis::class.java, RenderPropsImpl())
+    }
+
+    @Test
+    fun heading() {
+        val props = RenderPropsImpl()
+        CoreProps.HEADING_LEVEL.set(props, 2)
+        measureSpans(Heading::class.java, props)
+    }
+
+    @Test
+    fun link() {
+        val props = RenderPropsImpl()
+        CoreProps.LINK_DESTINATION.set(props, "https://example.com")
+        measureSpans(Link::class.java, props)
+    }
+
+    @Test
+    fun listItem() {
+        val props = RenderPropsImpl()
+        CoreProps.LIST_ITEM_TYPE.set(props, CoreProps.ListItemType.BULLET)
+        CoreProps.BULLET_LIST_ITEM_LEVEL.set(props, 0)
+        measureSpans(ListItem::class.java, props)
+    }
+
+    @Test
+    fun fencedCodeBlock() {
+        measureSpans(FencedCodeBlock::class.java, RenderPropsImpl())
+    }
+
+    /**
+     * Rendering of a parsed large document, dominated by span creation.
+     */
+    @Test
+    fun renderLargeDocument() {
+        val node = markwon.parse(Corpus.generate(Corpus.Mix.MIXED, Corpus.Size.LARGE))
+        benchmarkRule.measureRepeated {
+            markwon.render(node)
+        }
+    }
+
+    private fun <N : Node> measureSpans(node: Class<N>, props: RenderPropsImpl) {
+        val configuration = markwon.configuration()
+        val factory = configuration.spansFactory().require(node)
+        benchmarkRule.measureRepeated {
+            factory.getSpans(configuration, props)
+        }
+    }
+}
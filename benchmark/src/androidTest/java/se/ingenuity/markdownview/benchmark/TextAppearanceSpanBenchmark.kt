@@ -0,0 +1,39 @@
+package se.ingenuity.markdownview.benchmark
+
+import android.text.TextPaint
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import se.ingenuity.markdownview.util.span.TextAppearanceSpanCompat
+
+/**
+ * Cost of applying a [TextAppearanceSpanCompat] to the paint, which happens for every text run on
+ * every measure and draw pass.
+ */
+@RunWith(AndroidJUnit4::class)
+class TextAppearanceSpanBenchmark {
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private val paint = TextPaint()
+
+    @Test
+    fun updateMeasureStateStyled() {
+        measureUpdateMeasureState(R.style.TextAppearance_Benchmark_Markdown_H1)
+    }
+
+    @Test
+    fun updateMeasureStateFamily() {
+        measureUpdateMeasureState(R.style.TextAppearance_Benchmark_Markdown_Code)
+    }
+
+    private fun measureUpdateMeasureState(style: Int) {
+        val span = TextAppearanceSpanCompat(Corpus.context, style)
+        benchmarkRule.measureRepeated {
+            span.updateMeasureState(paint)
+        }
+    }
+}
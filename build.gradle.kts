@@ -7,6 +7,7 @@ buildscript {
     dependencies {
         classpath("com.android.tools.build:gradle:7.2.2")
         classpath("org.jetbrains.kotlin:kotlin-gradle-plugin:1.7.22")
+        classpath("androidx.benchmark:benchmark-gradle-plugin:1.1.1")
     }
 }
 
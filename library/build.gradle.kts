@@ -11,6 +11,7 @@ android {
         minSdk = 22
         targetSdk = 33
 
+        testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
         consumerProguardFile("proguard-markdownview.pro")
     }
 
@@ -40,8 +41,14 @@ publishing {
 
 dependencies {
     implementation("androidx.annotation:annotation:1.5.0")
+    implementation("androidx.core:core:1.9.0")
     implementation("io.noties.markwon:core:4.6.2")
 
     compileOnly("com.google.android.material:material:1.7.0")
     compileOnly("androidx.appcompat:appcompat:1.5.1")
+    compileOnly("androidx.recyclerview:recyclerview:1.2.1")
+
+    androidTestImplementation("androidx.asynclayoutinflater:asynclayoutinflater:1.0.0")
+    androidTestImplementation("androidx.test:runner:1.5.1")
+    androidTestImplementation("androidx.test.ext:junit:1.1.4")
 }
@@ -25,4 +25,9 @@
 -keep public class * extends se.ingenuity.markdownview.util.MarkwonBuilderFactory {
     public <init>();
     public io.noties.markwon.Markwon$Builder createBuilder(android.content.Context, android.util.AttributeSet, int, int);
-}
\ No newline at end of file
+}
+
+-keep public class * implements se.ingenuity.markdownview.util.MarkwonBuilderFactory2 {
+    public <init>();
+    public static ** INSTANCE;
+}
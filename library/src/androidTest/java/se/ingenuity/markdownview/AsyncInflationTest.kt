@@ -0,0 +1,111 @@
+package se.ingenuity.markdownview
+
+import android.view.ContextThemeWrapper
+import android.view.LayoutInflater
+import androidx.asynclayoutinflater.view.AsyncLayoutInflater
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import se.ingenuity.markdownview.test.R
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Views with `app:markdown` inflated off the main thread render there and apply the text on the
+ * main thread, without replacing text set on them in the meantime.
+ */
+@RunWith(AndroidJUnit4::class)
+class AsyncInflationTest {
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+    private val context = ContextThemeWrapper(
+        instrumentation.targetContext,
+        android.R.style.Theme_Material_Light
+    )
+    private val executor = Executors.newSingleThreadExecutor()
+
+    @After
+    fun tearDown() {
+        executor.shutdown()
+    }
+
+    @Test
+    fun asyncLayoutInflaterRendersMarkdown() {
+        val view = inflateAsync { }
+        instrumentation.waitForIdleSync()
+
+        assertEquals(INFLATED_TEXT, view.text.toString())
+    }
+
+    @Test
+    fun asyncLayoutInflaterKeepsTextSetInCallback() {
+        val view = inflateAsync { it.text = OTHER_TEXT }
+        instrumentation.waitForIdleSync()
+
+        assertEquals(OTHER_TEXT, view.text.toString())
+    }
+
+    @Test
+    fun textSetBeforeInflatedRenderIsAppliedIsKept() {
+        lateinit var view: MarkdownTextView
+        instrumentation.runOnMainSync {
+            view = inflateBlocking()
+            view.text = OTHER_TEXT
+        }
+        instrumentation.waitForIdleSync()
+
+        assertEquals(OTHER_TEXT, view.text.toString())
+    }
+
+    @Test
+    fun setMarkdownBeforeInflatedRenderIsAppliedIsKept() {
+        lateinit var view: MarkdownTextView
+        instrumentation.runOnMainSync {
+            view = inflateBlocking()
+            view.setMarkdown(OTHER_TEXT)
+        }
+        instrumentation.waitForIdleSync()
+
+        assertEquals(OTHER_TEXT, view.text.toString())
+    }
+
+    /**
+     * Inflates on [executor] and blocks the calling main thread until done. The view is handed
+     * over while its render is still queued behind the current message, unlike with the callback
+     * of [AsyncLayoutInflater].
+     */
+    private fun inflateBlocking(): MarkdownTextView {
+        return executor.submit<MarkdownTextView> {
+            LayoutInflater.from(context)
+                .cloneInContext(context)
+                .inflate(R.layout.test_inflated_markdown, null) as MarkdownTextView
+        }.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+    }
+
+    private fun inflateAsync(onInflated: (MarkdownTextView) -> Unit): MarkdownTextView {
+        val latch = CountDownLatch(1)
+        lateinit var view: MarkdownTextView
+        instrumentation.runOnMainSync {
+            AsyncLayoutInflater(context).inflate(
+                R.layout.test_inflated_markdown,
+                null
+            ) { inflated, _, _ ->
+                view = inflated as MarkdownTextView
+                onInflated(view)
+                latch.countDown()
+            }
+        }
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        return view
+    }
+
+    private companion object {
+        const val TIMEOUT_SECONDS = 10L
+        const val INFLATED_TEXT = "Inflated markdown"
+        const val OTHER_TEXT = "Other"
+    }
+}
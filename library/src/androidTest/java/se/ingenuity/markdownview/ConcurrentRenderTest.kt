@@ -0,0 +1,155 @@
+package se.ingenuity.markdownview
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.text.Spanned
+import android.view.ContextThemeWrapper
+import android.view.View
+import androidx.annotation.StyleRes
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import se.ingenuity.markdownview.test.R
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Span factories and the spans they create are used from several threads at once against one
+ * Markwon, without exceptions and with the same output as on a single thread.
+ */
+@RunWith(AndroidJUnit4::class)
+class ConcurrentRenderTest {
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+    private val executor = Executors.newFixedThreadPool(THREADS)
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun renderConcurrently() {
+        renderConcurrently(R.style.Theme_MarkdownTest)
+    }
+
+    @Test
+    fun renderMergedStyleGroupsConcurrently() {
+        renderConcurrently(R.style.Theme_MarkdownTest_MergedStyleGroups)
+    }
+
+    @Test
+    fun drawConcurrently() {
+        drawConcurrently(R.style.Theme_MarkdownTest)
+    }
+
+    @Test
+    fun drawMergedStyleGroupsConcurrently() {
+        drawConcurrently(R.style.Theme_MarkdownTest_MergedStyleGroups)
+    }
+
+    private fun renderConcurrently(@StyleRes theme: Int) {
+        // A new theme gets a new Markwon, styles are then resolved by the concurrent renders.
+        val renderer = MarkdownRenderer(ContextThemeWrapper(instrumentation.targetContext, theme))
+        val rendered = runConcurrently {
+            List(ITERATIONS) { describe(renderer.render(DOCUMENT)) }
+        }
+
+        val expected = describe(renderer.render(DOCUMENT))
+        rendered.flatten().forEach { assertEquals(expected, it) }
+    }
+
+    private fun drawConcurrently(@StyleRes theme: Int) {
+        val context = ContextThemeWrapper(instrumentation.targetContext, theme)
+        val rendered = MarkdownRenderer(context).render(DOCUMENT)
+        val views = ArrayList<MarkdownTextView>()
+        instrumentation.runOnMainSync {
+            repeat(THREADS + 1) {
+                val view = MarkdownTextView(context)
+                // Only the container is copied, all views share the span instances.
+                view.setRenderedMarkdown(rendered)
+                view.measure(
+                    View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED)
+                )
+                view.layout(0, 0, view.measuredWidth, view.measuredHeight)
+                views.add(view)
+            }
+        }
+
+        // Every thread draws the layout of its own view, text layouts are not thread safe.
+        val expected = draw(views[0], newBitmap(views[0]))
+        val nextView = AtomicInteger(1)
+        val mismatches = runConcurrently {
+            val view = views[nextView.getAndIncrement()]
+            val bitmap = newBitmap(view)
+            (0 until ITERATIONS).count { !draw(view, bitmap).sameAs(expected) }
+        }
+
+        assertEquals(List(THREADS) { 0 }, mismatches)
+    }
+
+    /**
+     * Runs [task] on [THREADS] threads released at the same time. Exceptions are rethrown.
+     */
+    private fun <T> runConcurrently(task: () -> T): List<T> {
+        val barrier = CyclicBarrier(THREADS)
+        val futures = List(THREADS) {
+            executor.submit<T> {
+                barrier.await()
+                task()
+            }
+        }
+        return futures.map { it.get(TIMEOUT_SECONDS, TimeUnit.SECONDS) }
+    }
+
+    private fun newBitmap(view: View): Bitmap {
+        return Bitmap.createBitmap(view.width, view.height, Bitmap.Config.ARGB_8888)
+    }
+
+    private fun draw(view: MarkdownTextView, bitmap: Bitmap): Bitmap {
+        bitmap.eraseColor(Color.TRANSPARENT)
+        view.layout.draw(Canvas(bitmap))
+        return bitmap
+    }
+
+    private fun describe(spanned: Spanned): List<String> {
+        return spanned.getSpans(0, spanned.length, Any::class.java).map { span ->
+            "${span.javaClass.name} ${spanned.getSpanStart(span)}-${spanned.getSpanEnd(span)} " +
+                    "${spanned.getSpanFlags(span)}"
+        } + spanned.toString()
+    }
+
+    private companion object {
+        const val THREADS = 8
+        const val ITERATIONS = 25
+        const val TIMEOUT_SECONDS = 60L
+        const val WIDTH = 720
+
+        const val DOCUMENT = """# Heading with *emphasis*
+
+## Second heading
+
+Paragraph with *emphasis*, **strong emphasis**, `code` and a [link](https://example.com).
+
+> Block quote spanning
+> more than one line of **text**.
+
+* Unordered
+* List with `code`
+
+```
+Fenced code block
+with several lines
+  of different widths
+```
+
+Last paragraph.
+"""
+    }
+}
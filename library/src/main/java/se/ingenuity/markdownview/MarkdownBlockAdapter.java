@@ -0,0 +1,164 @@
+package se.ingenuity.markdownview;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.util.LruCache;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.StyleRes;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.commonmark.node.Document;
+import org.commonmark.node.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.noties.markwon.Markwon;
+
+/**
+ * Adapter showing a markdown document as one {@link TextView} per top-level block, for documents
+ * too large for a single text view. The document is parsed up front but blocks are only rendered
+ * when bound, and a bounded number of rendered blocks is kept. Styling uses the same
+ * {@code markdownStyles} attributes as {@link MarkdownTextView}, rendered by one Markwon shared
+ * by all rows.
+ * <p>
+ * The blank line Markwon puts between top-level blocks is added as an item decoration of the
+ * {@link RecyclerView} the adapter is attached to, one line height of the row above.
+ */
+public class MarkdownBlockAdapter extends RecyclerView.Adapter<MarkdownBlockAdapter.ViewHolder> {
+    private static final int DEFAULT_MAX_RENDERED_BLOCKS = 64;
+
+    @StyleRes
+    private final int defStyleRes;
+    @NonNull
+    private final Markwon markwon;
+    @NonNull
+    private final LruCache<Integer, Spanned> renderedBlocks;
+    @NonNull
+    private final RecyclerView.ItemDecoration blockSpacing = new BlockSpacing();
+    @NonNull
+    private List<Node> blocks = Collections.emptyList();
+
+    public MarkdownBlockAdapter(@NonNull Context context) {
+        this(context, 0);
+    }
+
+    public MarkdownBlockAdapter(@NonNull Context context, @StyleRes int defStyleRes) {
+        this(context, defStyleRes, DEFAULT_MAX_RENDERED_BLOCKS);
+    }
+
+    public MarkdownBlockAdapter(
+            @NonNull Context context,
+            @StyleRes int defStyleRes,
+            int maxRenderedBlocks) {
+        this.defStyleRes = defStyleRes;
+        markwon = MarkdownHelper.obtainMarkwon(
+                context,
+                null,
+                R.attr.markdownStyles,
+                defStyleRes,
+                null);
+        renderedBlocks = new LruCache<>(maxRenderedBlocks);
+    }
+
+    public void setMarkdown(@Nullable String markdown) {
+        final Node document = markwon.parse(markdown != null ? markdown : "");
+        final List<Node> blocks = new ArrayList<>();
+        Node block = document.getFirstChild();
+        while (block != null) {
+            final Node next = block.getNext();
+            // Every block becomes a document of its own so it can be rendered in isolation.
+            final Document blockDocument = new Document();
+            blockDocument.appendChild(block);
+            blocks.add(blockDocument);
+            block = next;
+        }
+        this.blocks = blocks;
+        renderedBlocks.evictAll();
+        notifyDataSetChanged();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        final TextView textView = new TextView(
+                parent.getContext(),
+                null,
+                android.R.attr.textViewStyle,
+                defStyleRes);
+        textView.setLayoutParams(new RecyclerView.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT));
+        return new ViewHolder(textView);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        Spanned rendered = renderedBlocks.get(position);
+        if (rendered == null) {
+            rendered = renderBlock(position);
+            renderedBlocks.put(position, rendered);
+        }
+        // setParsedMarkdown attaches the text view to the spanned, never hand out the cached one.
+        markwon.setParsedMarkdown(holder.textView, new SpannableStringBuilder(rendered));
+    }
+
+    @Override
+    public int getItemCount() {
+        return blocks.size();
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        recyclerView.addItemDecoration(blockSpacing);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        recyclerView.removeItemDecoration(blockSpacing);
+    }
+
+    @NonNull
+    private Spanned renderBlock(int position) {
+        return markwon.render(blocks.get(position));
+    }
+
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+        @NonNull
+        public final TextView textView;
+
+        ViewHolder(@NonNull TextView textView) {
+            super(textView);
+            this.textView = textView;
+        }
+    }
+
+    private class BlockSpacing extends RecyclerView.ItemDecoration {
+        @Override
+        public void getItemOffsets(
+                @NonNull Rect outRect,
+                @NonNull View view,
+                @NonNull RecyclerView parent,
+                @NonNull RecyclerView.State state) {
+            final RecyclerView.ViewHolder holder = parent.getChildViewHolder(view);
+            if (holder.getBindingAdapter() != MarkdownBlockAdapter.this) {
+                outRect.setEmpty();
+                return;
+            }
+            final int position = holder.getBindingAdapterPosition();
+            if (position == RecyclerView.NO_POSITION || position == getItemCount() - 1) {
+                outRect.setEmpty();
+            } else {
+                outRect.set(0, 0, 0, ((ViewHolder) holder).textView.getLineHeight());
+            }
+        }
+    }
+}
@@ -1,40 +1,117 @@
 package se.ingenuity.markdownview
 
+import android.app.Activity
 import android.content.Context
+import android.content.ContextWrapper
 import android.os.Build
+import android.os.Handler
+import android.os.Looper
 import android.os.Parcel
 import android.os.Parcelable
+import android.text.Editable
+import android.text.Layout
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.TextPaint
 import android.util.AttributeSet
 import android.view.AbsSavedState
 import android.widget.TextView
 import androidx.annotation.AttrRes
 import androidx.annotation.RequiresApi
 import androidx.annotation.StyleRes
+import androidx.core.text.PrecomputedTextCompat
+import androidx.core.widget.TextViewCompat
 import io.noties.markwon.Markwon
 import io.noties.markwon.MarkwonPlugin
 import io.noties.markwon.core.CorePlugin
+import org.commonmark.node.Node
+import se.ingenuity.markdownview.util.MarkdownStateStore
+import se.ingenuity.markdownview.util.MarkdownStream
 import se.ingenuity.markdownview.util.MarkdownViewPlugin
 import se.ingenuity.markdownview.util.MarkwonBuilderFactory
 import se.ingenuity.markdownview.util.MarkwonBuilderFactory2
-import java.lang.reflect.Constructor
-import java.lang.reflect.InvocationTargetException
+import se.ingenuity.markdownview.util.MarkwonFactoryRegistry
+import se.ingenuity.markdownview.util.MarkwonRegistry
+import se.ingenuity.markdownview.util.ParseTrees
+import se.ingenuity.markdownview.util.RetainedRenders
+import se.ingenuity.markdownview.util.ViewBoundSpans
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicInteger
 
 internal class MarkdownHelper(private val textView: TextView) {
-    private lateinit var plugin: MarkwonPlugin
-
     private var markdown: String? = null
     private var markwon: Markwon? = null
 
-    private var staticBuilder: MutableBuilder? = null
     private var dynamicBuilder: MutableBuilder? = null
 
+    var renderCache: MarkdownRenderCache? = null
+
+    /**
+     * When set, text layout is precomputed on this executor before the text is applied.
+     */
+    var precomputedTextExecutor: Executor? = null
+
+    /**
+     * Markdown longer than this is saved as a key into [MarkdownStateStore].
+     */
+    var savedStateThreshold = Int.MAX_VALUE
+
+    private var renderedMarkwon: Markwon? = null
+    private var renderedMarkdown: String? = null
+    private var renderedText: CharSequence? = null
+
+    /**
+     * What [renderedText] was set from and its parse tree, if known.
+     */
+    private var renderedSpanned: Spanned? = null
+    private var renderedNode: Node? = null
+
+    /**
+     * Style of this view for [RetainedRenders], null if its [Markwon] is not shareable.
+     */
+    private var styleKey: RetainedRenders.StyleKey? = null
+
+    var skippedRenderCount = 0
+        private set
+
+    private var renderListener: MarkdownRenderListener? = null
+
+    /**
+     * Stats of the last render, waiting for the view to be measured.
+     */
+    private var pendingStats: MarkdownRenderStats? = null
+
+    /**
+     * Set while a re-render requested by [PluginEditor.commit] is waiting for the next frame.
+     */
+    private var renderScheduled = false
+    private val scheduledRender = Runnable {
+        if (renderScheduled) {
+            renderScheduled = false
+            rerender()
+        }
+    }
+
+    private var stream: MarkdownStream? = null
+
+    /**
+     * Text the [stream] is rendered into and the end of its finished blocks.
+     */
+    private var streamText: Editable? = null
+    private var streamClosedEnd = 0
+
+    /**
+     * Incremented for every render request, pending async renders with an older generation are
+     * stale and must not be applied.
+     */
+    private val generation = AtomicInteger()
+
     fun loadFromAttributes(
         context: Context,
         attrs: AttributeSet?,
         @AttrRes defStyleAttr: Int,
         @StyleRes defStyleRes: Int
     ) {
-        plugin = MarkdownViewPlugin(context, attrs, defStyleAttr, defStyleRes)
         val a = context.obtainStyledAttributes(
             attrs,
             R.styleable.MarkdownTextView,
@@ -46,52 +123,68 @@ internal class MarkdownHelper(private val textView: TextView) {
         val markwonFactoryBuilderClassName = a.getString(
             R.styleable.MarkdownTextView_markwonFactoryBuilder
         )
-        if (markwonFactoryBuilderClassName == null) {
-            ensureStaticBuilder()
+        a.recycle()
+
+        // Instantiated factories are created once per view, the same instance keys and builds.
+        val factory = resolveFactory(context, markwonFactoryBuilderClassName)
+        val factoryKey = MarkwonRegistry.factoryKey(context, attrs, factory)
+        styleKey = if (MarkwonRegistry.hasExplicitStyleAttributes(attrs) ||
+            factoryKey === MarkwonRegistry.UNSHAREABLE
+        ) {
+            null
         } else {
-            try {
-                val builder = parseMarkwonBuilder(
-                    context,
-                    attrs,
-                    defStyleAttr,
-                    defStyleRes,
-                    markwonFactoryBuilderClassName
-                )
-                staticBuilder = if (builder is MutableBuilder) {
-                    builder
-                } else {
-                    MutableBuilder(builder)
-                }
-                val indexOfCorePlugin = staticBuilder!!.indexOfFirst { plugin ->
-                    plugin is CorePlugin
-                }
-
-                val factoryContainsMarkdownViewPlugin = staticBuilder!!.find { plugin ->
-                    plugin is MarkdownViewPlugin
-                } != null
-
-                if (!factoryContainsMarkdownViewPlugin) {
-                    // Ensure MarkdownViewPlugin if factory not pointing to one already otherwise
-                    // `this` class has no purpose.
-                    staticBuilder!!.usePlugin(indexOfCorePlugin.coerceAtLeast(0), plugin)
-                }
-            } finally {
-                a.recycle()
-            }
+            RetainedRenders.StyleKey(
+                defStyleAttr,
+                defStyleRes,
+                attrs?.styleAttribute ?: 0,
+                markwonFactoryBuilderClassName,
+                factoryKey
+            )
         }
-        dynamicBuilder = staticBuilder
+        markwon = obtainMarkwon(
+            context,
+            attrs,
+            defStyleAttr,
+            defStyleRes,
+            markwonFactoryBuilderClassName,
+            factory,
+            factoryKey
+        )
         if (hasMarkdown) {
-            setMarkdown(markdown)
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                setMarkdown(markdown)
+            } else {
+                // Inflated on a worker thread, e.g. by AsyncLayoutInflater. Render while still on
+                // it and only set the text on the main thread.
+                this.markdown = markdown.orEmpty()
+                AsyncRender(
+                    markwon!!,
+                    null,
+                    markdown.orEmpty(),
+                    null,
+                    null,
+                    null,
+                    generation.incrementAndGet()
+                ).run()
+            }
         }
     }
 
+    /**
+     * Called before any text is set on the view, by this helper or anyone else. Pending renders,
+     * e.g. of markdown inflated on a worker thread, must not replace text set after them.
+     */
+    fun onSetText() {
+        generation.incrementAndGet()
+    }
+
     fun addMarkwonPlugins(update: Boolean, vararg includes: MarkwonPlugin) {
         if (includes.isEmpty()) {
             return
         }
         ensureDynamicBuilder()
         dynamicBuilder!!.usePlugins(includes.toList())
-        if (update) setMarkdown(markdown)
+        if (update) rerender()
     }
 
     fun removeMarkwonPlugins(update: Boolean, vararg excludes: MarkwonPlugin) {
@@ -102,21 +195,188 @@ internal class MarkdownHelper(private val textView: TextView) {
         // candidates.
         ensureDynamicBuilder()
         dynamicBuilder!!.removePlugins(excludes.toSet())
-        if (update) setMarkdown(markdown)
+        if (update) rerender()
     }
 
+    fun editPlugins(update: Boolean): MarkdownView.PluginEditor = PluginEditor(update)
+
     fun setMarkdown(markdown: String?) {
-        if (dynamicBuilder != null) {
-            markwon = dynamicBuilder!!.build()
-            dynamicBuilder = null
+        setMarkdown(markdown, false)
+    }
+
+    fun setMarkdown(markdown: String?, force: Boolean) {
+        cancelScheduledRender()
+        val renderGeneration = generation.incrementAndGet()
+        val stats = newStats()
+        val markwon = requireMarkwon(stats)
+
+        stream = null
+        this.markdown = markdown.orEmpty()
+        if (!force && isRendered(markwon, markdown.orEmpty())) {
+            skippedRenderCount++
+            return
         }
+        val rendered = takeRetained(markwon, markdown.orEmpty(), stats) ?: render(
+            markwon,
+            renderCache,
+            markdown.orEmpty(),
+            stats,
+            reusableNode(markwon, markdown.orEmpty())
+        )
+        val precomputedTextExecutor = precomputedTextExecutor
+        if (precomputedTextExecutor != null) {
+            precomputedTextExecutor.execute(
+                AsyncRender(
+                    markwon,
+                    renderCache,
+                    markdown.orEmpty(),
+                    rendered,
+                    TextViewCompat.getTextMetricsParams(textView),
+                    stats,
+                    renderGeneration
+                )
+            )
+        } else {
+            val start = System.nanoTime()
+            markwon.setParsedMarkdown(textView, rendered.spanned)
+            stats?.setTextNanos = System.nanoTime() - start
+            onRendered(markwon, markdown.orEmpty(), rendered, stats)
+        }
+    }
 
+    fun setMarkdownAsync(markdown: String?, executor: Executor): MarkdownView.Cancellable {
+        cancelScheduledRender()
+        val stats = newStats()
+        val markwon = requireMarkwon(stats)
+
+        stream = null
         this.markdown = markdown.orEmpty()
-        markwon!!.setMarkdown(textView, markdown.orEmpty())
+        val render = AsyncRender(
+            markwon,
+            renderCache,
+            markdown.orEmpty(),
+            null,
+            if (precomputedTextExecutor != null) {
+                TextViewCompat.getTextMetricsParams(textView)
+            } else {
+                null
+            },
+            stats,
+            generation.incrementAndGet()
+        )
+        if (isRendered(markwon, markdown.orEmpty())) {
+            skippedRenderCount++
+            render.cancel()
+        } else {
+            executor.execute(render)
+        }
+        return render
+    }
+
+    fun setRenderedMarkdown(rendered: Spanned) {
+        cancelScheduledRender()
+        generation.incrementAndGet()
+        val markwon = requireMarkwon()
+
+        stream = null
+        markdown = null
+        // setParsedMarkdown mutates its argument, the same output may be bound to several views.
+        markwon.setParsedMarkdown(textView, SpannableStringBuilder(rendered))
+        renderedMarkwon = null
+        renderedMarkdown = null
+        renderedText = null
+        renderedSpanned = null
+        renderedNode = null
+    }
+
+    /**
+     * Appends [markdown] to the current content. Finished top-level blocks keep their rendered
+     * spans, only the trailing open block is re-rendered and patched into the text.
+     *
+     * The current content is the last markdown source, text set without one, e.g. by
+     * [setRenderedMarkdown], is replaced.
+     */
+    fun appendMarkdown(markdown: CharSequence) {
+        cancelScheduledRender()
+        generation.incrementAndGet()
+        val markwon = requireMarkwon()
+
+        var stream = stream
+        var text = streamText
+        if (stream == null || text == null || textView.text !== text) {
+            stream = MarkdownStream(currentMarkdown().orEmpty())
+            this.stream = stream
+            textView.setText("", TextView.BufferType.EDITABLE)
+            text = textView.editableText
+            streamText = text
+            streamClosedEnd = 0
+            renderedMarkdown = null
+        }
+        stream.append(markdown)
+
+        val closed = stream.closeBlocks()
+        if (closed != null) {
+            replaceBlocks(text!!, streamClosedEnd, markwon.toMarkdown(closed))
+            streamClosedEnd = text.length
+        }
+        replaceBlocks(text!!, streamClosedEnd, markwon.toMarkdown(stream.openBlock()))
+
+        // Mirrors Markwon.setParsedMarkdown, the text itself is already patched.
+        markwon.plugins.forEach { it.beforeSetText(textView, text) }
+        markwon.plugins.forEach { it.afterSetText(textView) }
+    }
+
+    fun setRenderListener(listener: MarkdownRenderListener?) {
+        if ((listener == null) != (renderListener == null)) {
+            ensureDynamicBuilder()
+            if (listener != null) {
+                dynamicBuilder!!.usePlugin(RenderInstrumentation)
+            } else {
+                dynamicBuilder!!.removePlugins(listOf(RenderInstrumentation))
+            }
+        }
+        renderListener = listener
+        if (listener == null) {
+            pendingStats = null
+        }
+    }
+
+    /**
+     * @return start time of the measure pass if the last render is waiting for it, otherwise 0.
+     */
+    fun onMeasureStart(): Long {
+        return if (pendingStats != null) System.nanoTime() else 0L
+    }
+
+    fun onMeasureEnd(start: Long) {
+        val stats = pendingStats ?: return
+        pendingStats = null
+        stats.layoutNanos = System.nanoTime() - start
+        renderListener?.onRender(stats)
     }
 
     fun onSaveInstanceState(superState: Parcelable): Parcelable {
-        return SS(superState, markdown)
+        val markdown = currentMarkdown()
+        val renderedMarkwon = renderedMarkwon
+        if (markdown != null &&
+            renderedMarkwon != null &&
+            isRendered(renderedMarkwon, markdown) &&
+            isChangingConfigurations()
+        ) {
+            RetainedRenders.retain(
+                markdown,
+                textView.resources.configuration,
+                textView.context.theme,
+                styleKey,
+                renderedMarkwon,
+                renderedSpanned,
+                renderedNode
+            )
+        }
+        if (markdown != null && markdown.length > savedStateThreshold) {
+            return SS(superState, MarkdownStateStore.put(textView.context, markdown), true)
+        }
+        return SS(superState, markdown, false)
     }
 
     fun getSuperState(state: Parcelable): Parcelable? {
@@ -124,30 +384,279 @@ internal class MarkdownHelper(private val textView: TextView) {
     }
 
     fun onRestoreInstanceState(state: Parcelable) {
-        if (state is SS) {
-            markdown = state.markdown
+        if (state !is SS) {
+            return
+        }
+        if (!state.stored) {
+            restore(state.value)
+            return
+        }
+        val key = state.value ?: return restore(null)
+        val stored = MarkdownStateStore.peek(key)
+        if (stored != null) {
+            restore(stored)
+            return
+        }
+        // Only after process death, reading the file is left to the store's disk thread.
+        val restoreGeneration = generation.get()
+        MarkdownStateStore.read(textView.context, key) { markdown ->
+            if (generation.get() == restoreGeneration) {
+                restore(markdown)
+            }
         }
     }
 
-    private fun ensureStaticBuilder() {
-        if (staticBuilder == null) {
-            staticBuilder = MutableBuilder(
-                Markwon.builder(textView.context).usePlugin(plugin)
-            )
+    private fun restore(markdown: String?) {
+        if (markdown != null && renderedMarkdown == null && stream == null) {
+            // Nothing was set since inflation, show the restored content.
+            setMarkdown(markdown)
+        } else {
+            this.markdown = markdown
         }
     }
 
+    /**
+     * @return true if the activity of the view is being recreated, its views are then replaced by
+     * ones that can reuse the rendered text.
+     */
+    private fun isChangingConfigurations(): Boolean {
+        var context = textView.context
+        while (context is ContextWrapper) {
+            if (context is Activity) {
+                return context.isChangingConfigurations
+            }
+            context = context.baseContext
+        }
+        return false
+    }
+
+    private fun cancelScheduledRender() {
+        if (renderScheduled) {
+            renderScheduled = false
+            textView.removeCallbacks(scheduledRender)
+        }
+    }
+
+    private fun currentMarkdown(): String? = stream?.toString() ?: markdown
+
+    /**
+     * Renders the current markdown again after a plugin change. Text set without its source, see
+     * [setRenderedMarkdown], is kept as it cannot be rendered again.
+     */
+    private fun rerender() {
+        val markdown = currentMarkdown() ?: return
+        setMarkdown(markdown)
+    }
+
+    private fun replaceBlocks(text: Editable, start: Int, rendered: Spanned) {
+        text.replace(start, text.length, rendered)
+        if (start > 0 && rendered.isNotEmpty()) {
+            text.insert(start, BLOCK_SEPARATOR)
+        }
+    }
+
+    /**
+     * @return true if [markdown] is what [markwon] last rendered and the text has not been
+     * replaced since.
+     */
+    private fun isRendered(markwon: Markwon, markdown: String): Boolean {
+        return markwon === renderedMarkwon &&
+                markdown == renderedMarkdown &&
+                textView.text === renderedText
+    }
+
+    /**
+     * @return parse tree of the last render if it was of [markdown] and [markwon] parses the same
+     * way, so re-rendering with changed styles or plugins does not need to parse again.
+     */
+    private fun reusableNode(markwon: Markwon, markdown: String): Node? {
+        val node = renderedNode ?: return null
+        val renderedMarkwon = renderedMarkwon ?: return null
+        return if (markdown == renderedMarkdown && ParseTrees.canReuse(renderedMarkwon, markwon)) {
+            node
+        } else {
+            null
+        }
+    }
+
+    /**
+     * @return the text retained for [markdown] by a view this one replaces, rendered from its
+     * parse tree if the spans cannot be reused.
+     */
+    private fun takeRetained(
+        markwon: Markwon,
+        markdown: String,
+        stats: MarkdownRenderStats?
+    ): Rendered? {
+        val retained = RetainedRenders.take(
+            markdown,
+            textView.resources.configuration,
+            textView.context.theme,
+            styleKey,
+            markwon
+        ) ?: return null
+        retained.spanned?.also {
+            stats?.inputLength = markdown.length
+            return Rendered(it, retained.node)
+        }
+        return retained.node?.let { render(markwon, renderCache, markdown, stats, it) }
+    }
+
+    private fun onRendered(
+        markwon: Markwon,
+        markdown: String,
+        rendered: Rendered,
+        stats: MarkdownRenderStats?
+    ) {
+        renderedMarkwon = markwon
+        renderedMarkdown = markdown
+        renderedText = textView.text
+        renderedSpanned = rendered.spanned
+        renderedNode = rendered.node
+
+        if (stats != null) {
+            if (textView.isLayoutRequested) {
+                // Reported once the view has been measured.
+                pendingStats = stats
+            } else {
+                // The text view laid out the text as part of setting it.
+                stats.layoutNanos = 0
+                renderListener?.onRender(stats)
+            }
+        }
+    }
+
+    /**
+     * @return stats to fill in for a render, or null if nobody is listening.
+     */
+    private fun newStats(): MarkdownRenderStats? {
+        // A render that never got measured is reported before the next one starts.
+        pendingStats?.also { stats ->
+            pendingStats = null
+            renderListener?.onRender(stats)
+        }
+        return if (renderListener != null) MarkdownRenderStats() else null
+    }
+
+    private fun requireMarkwon(stats: MarkdownRenderStats? = null): Markwon {
+        if (dynamicBuilder != null) {
+            val start = System.nanoTime()
+            if (renderListener != null) {
+                // Instrumentation has to see the span factories of all other plugins.
+                dynamicBuilder!!.removePlugins(listOf(RenderInstrumentation))
+                dynamicBuilder!!.usePlugin(RenderInstrumentation)
+            }
+            markwon = dynamicBuilder!!.build()
+            dynamicBuilder = null
+            stats?.buildNanos = System.nanoTime() - start
+        }
+        return markwon!!
+    }
+
     private fun ensureDynamicBuilder() {
         if (dynamicBuilder == null) {
-            dynamicBuilder = if (markwon != null) {
-                MutableBuilder(
-                    Markwon.builderNoCore(textView.context).usePlugins(
-                        markwon!!.plugins
-                    )
-                )
+            // Markwon might be shared with other views, plugin changes always go to a private copy.
+            dynamicBuilder = MutableBuilder(
+                Markwon.builderNoCore(textView.context).usePlugins(markwon!!.plugins)
+            )
+        }
+    }
+
+    /**
+     * Collects plugin changes and applies them with a single [Markwon] rebuild. The rebuild and
+     * re-render are deferred to the next frame or the next `setMarkdown`, whichever comes first.
+     */
+    private inner class PluginEditor(private val update: Boolean) : MarkdownView.PluginEditor {
+        private val includes = mutableListOf<MarkwonPlugin>()
+        private val excludes = mutableSetOf<MarkwonPlugin>()
+
+        override fun add(vararg plugins: MarkwonPlugin): MarkdownView.PluginEditor {
+            excludes.removeAll(plugins.toSet())
+            includes.addAll(plugins)
+            return this
+        }
+
+        override fun remove(vararg plugins: MarkwonPlugin): MarkdownView.PluginEditor {
+            includes.removeAll(plugins.toSet())
+            excludes.addAll(plugins)
+            return this
+        }
+
+        override fun commit() {
+            if (includes.isEmpty() && excludes.isEmpty()) {
+                return
+            }
+            // Note that it is assumed that Core and MarkdownViewPlugin were not part of the remove
+            // candidates.
+            ensureDynamicBuilder()
+            dynamicBuilder!!.removePlugins(excludes)
+            dynamicBuilder!!.usePlugins(includes)
+            includes.clear()
+            excludes.clear()
+
+            if (update && !renderScheduled) {
+                renderScheduled = true
+                textView.postOnAnimation(scheduledRender)
+            }
+        }
+    }
+
+    private inner class AsyncRender(
+        private val markwon: Markwon,
+        private val renderCache: MarkdownRenderCache?,
+        private val markdown: String,
+        private val rendered: Rendered?,
+        private val precomputeParams: PrecomputedTextCompat.Params?,
+        private val stats: MarkdownRenderStats?,
+        private val generation: Int
+    ) : Runnable, MarkdownView.Cancellable {
+        @Volatile
+        private var cancelled = false
+
+        override fun run() {
+            if (isCancelled()) {
+                return
+            }
+            // Parsing and rendering is thread safe, only applying the result touches the view.
+            val rendered = rendered ?: render(markwon, renderCache, markdown, stats)
+            val start = System.nanoTime()
+            val precomputed = precomputeParams?.let {
+                PrecomputedTextCompat.create(rendered.spanned, it)
+            }
+            if (precomputed != null) {
+                stats?.precomputeNanos = System.nanoTime() - start
+            }
+            if (!isCancelled()) {
+                MAIN_HANDLER.post { apply(rendered, precomputed) }
+            }
+        }
+
+        private fun apply(rendered: Rendered, precomputed: PrecomputedTextCompat?) {
+            if (isCancelled()) {
+                return
+            }
+            val start = System.nanoTime()
+            // Metrics might have changed while precomputing, the precomputed text is then useless.
+            if (precomputed != null &&
+                precomputed.params == TextViewCompat.getTextMetricsParams(textView)
+            ) {
+                // Mirrors Markwon.setParsedMarkdown, with the precomputed text as the text.
+                markwon.plugins.forEach { it.beforeSetText(textView, precomputed) }
+                TextViewCompat.setPrecomputedText(textView, precomputed)
+                markwon.plugins.forEach { it.afterSetText(textView) }
             } else {
-                MutableBuilder(Markwon.builder(textView.context).usePlugin(plugin))
+                markwon.setParsedMarkdown(textView, rendered.spanned)
             }
+            stats?.setTextNanos = System.nanoTime() - start
+            onRendered(markwon, markdown, rendered, stats)
+        }
+
+        override fun cancel() {
+            cancelled = true
+        }
+
+        override fun isCancelled(): Boolean {
+            return cancelled || generation != this@MarkdownHelper.generation.get()
         }
     }
 
@@ -184,25 +693,38 @@ internal class MarkdownHelper(private val textView: TextView) {
         }
     }
 
-    private class SS : AbsSavedState {
-        val markdown: String?
+    /**
+     * Output of a render, [node] is null when the output came from the render cache.
+     */
+    private class Rendered(val spanned: Spanned, val node: Node?)
 
-        constructor(superState: Parcelable, markdown: String?) : super(superState) {
-            this.markdown = markdown
+    private class SS : AbsSavedState {
+        /**
+         * The markdown, or its [MarkdownStateStore] key if [stored].
+         */
+        val value: String?
+        val stored: Boolean
+
+        constructor(superState: Parcelable, value: String?, stored: Boolean) : super(superState) {
+            this.value = value
+            this.stored = stored
         }
 
         constructor(source: Parcel) : super(source) {
-            markdown = source.readString()
+            stored = source.readInt() != 0
+            value = source.readString()
         }
 
         @RequiresApi(api = Build.VERSION_CODES.N)
         constructor(source: Parcel, loader: ClassLoader?) : super(source, loader) {
-            markdown = source.readString()
+            stored = source.readInt() != 0
+            value = source.readString()
         }
 
         override fun writeToParcel(dest: Parcel, flags: Int) {
             super.writeToParcel(dest, flags)
-            dest.writeString(markdown)
+            dest.writeInt(if (stored) 1 else 0)
+            dest.writeString(value)
         }
 
         companion object {
@@ -225,216 +747,248 @@ internal class MarkdownHelper(private val textView: TextView) {
     }
 
     companion object {
-        private val CONSTRUCTORS = ThreadLocal<MutableMap<String, Constructor<Any>?>>()
-        private val SINGLETONS = ThreadLocal<MutableMap<String, Any?>>()
+        private val MAIN_HANDLER = Handler(Looper.getMainLooper())
+
+        /**
+         * What Markwon puts between two top-level blocks.
+         */
+        private const val BLOCK_SEPARATOR = "\n\n"
+
+        /**
+         * Covers every node type [MarkdownViewPlugin] styles.
+         */
+        private const val PREWARM_MARKDOWN = """# H1
+## H2
+### H3
+#### H4
+##### H5
+###### H6
+
+Paragraph with *emphasis*, **strong emphasis**, `code` and a [link](https://example.com).
+
+> Block quote
+
+1. Ordered
+2. List
+
+* Unordered
+* List
+
+```
+Fenced code block
+```
+
+    Indented code block
+
+---
+"""
+
+        /**
+         * Renders [markdown] through [renderCache] if present. The returned [Spanned] is always
+         * private to the caller as [Markwon.setParsedMarkdown] mutates it.
+         *
+         * @param node parse tree of [markdown] to render instead of parsing it.
+         */
+        private fun render(
+            markwon: Markwon,
+            renderCache: MarkdownRenderCache?,
+            markdown: String,
+            stats: MarkdownRenderStats?,
+            node: Node? = null
+        ): Rendered {
+            stats?.inputLength = markdown.length
+            if (renderCache == null) {
+                return render(markwon, markdown, stats, node)
+            }
+            // Instrumentation only times the other span factories, it does not change the output.
+            val key = MarkdownRenderCache.Key(
+                markwon.plugins.filter { it !== RenderInstrumentation },
+                markdown
+            )
+            val cached = renderCache.get(key)
+            if (cached != null) {
+                stats?.cacheHit = true
+                return Rendered(SpannableStringBuilder(cached), null)
+            }
+            val rendered = render(markwon, markdown, stats, node)
+            // Hits share the span instances, only the container is copied.
+            if (ViewBoundSpans.containedIn(rendered.spanned)) {
+                return rendered
+            }
+            renderCache.put(key, rendered.spanned)
+            return Rendered(SpannableStringBuilder(rendered.spanned), rendered.node)
+        }
 
-        @Suppress("UNCHECKED_CAST", "DEPRECATION")
-        private fun parseMarkwonBuilder(
+        private fun render(
+            markwon: Markwon,
+            markdown: String,
+            stats: MarkdownRenderStats?,
+            node: Node?
+        ): Rendered {
+            var start = System.nanoTime()
+            val parsed = node ?: markwon.parse(markdown).also {
+                stats?.parseNanos = System.nanoTime() - start
+            }
+
+            start = System.nanoTime()
+            val rendered = if (stats != null) {
+                RenderInstrumentation.countNodes(parsed, stats)
+                RenderInstrumentation.collect(stats) { markwon.render(parsed) }
+            } else {
+                markwon.render(parsed)
+            }
+            stats?.renderNanos = System.nanoTime() - start
+
+            // toMarkdown falls back to the raw input for empty output, let it decide.
+            return if (rendered.isEmpty() && markdown.isNotEmpty()) {
+                Rendered(markwon.toMarkdown(markdown), parsed)
+            } else {
+                Rendered(rendered, parsed)
+            }
+        }
+
+        /**
+         * @return [Markwon] for the given style, shared with other users of the same style when
+         * possible.
+         */
+        @JvmStatic
+        fun obtainMarkwon(
             context: Context,
             attrs: AttributeSet?,
             @AttrRes defStyleAttr: Int,
             @StyleRes defStyleRes: Int,
-            name: String
-        ): Markwon.Builder {
-            var singletons = SINGLETONS.get()
-            if (singletons == null) {
-                singletons = LinkedHashMap()
-                SINGLETONS.set(singletons)
+            markwonFactoryBuilderClassName: String?
+        ): Markwon {
+            val factory = resolveFactory(context, markwonFactoryBuilderClassName)
+            return obtainMarkwon(
+                context,
+                attrs,
+                defStyleAttr,
+                defStyleRes,
+                markwonFactoryBuilderClassName,
+                factory,
+                MarkwonRegistry.factoryKey(context, attrs, factory)
+            )
+        }
+
+        private fun obtainMarkwon(
+            context: Context,
+            attrs: AttributeSet?,
+            @AttrRes defStyleAttr: Int,
+            @StyleRes defStyleRes: Int,
+            markwonFactoryBuilderClassName: String?,
+            factory: Any?,
+            factoryKey: Any?
+        ): Markwon {
+            return MarkwonRegistry.obtain(
+                context,
+                attrs,
+                defStyleAttr,
+                defStyleRes,
+                markwonFactoryBuilderClassName,
+                factoryKey
+            ) {
+                createMarkwon(context, attrs, defStyleAttr, defStyleRes, factory)
             }
-            return try {
-                // try kotlin object first
-                var singleton = singletons[name]
-                if (singleton == null) {
-                    singleton = Class
-                        .forName(name, false, context.classLoader)
-                        .getDeclaredField("INSTANCE")[null] as Any
-                    singletons[name] = singleton
-                }
-                if (singleton is MarkwonBuilderFactory2) {
-                    val builder: Markwon.Builder = MutableBuilder(Markwon.builderNoCore(context))
-                    singleton.initBuilder(
-                        context,
-                        attrs,
-                        defStyleAttr,
-                        defStyleRes,
-                        builder
-                    )
-                    builder
-                } else {
-                    (singleton as MarkwonBuilderFactory)
-                        .createBuilder(context, attrs, defStyleAttr, defStyleRes)
-                }
-            } catch (ignore: IllegalAccessException) {
-                var constructors = CONSTRUCTORS.get()
-                if (constructors == null) {
-                    constructors = LinkedHashMap()
-                    CONSTRUCTORS.set(constructors)
-                }
-                try {
-                    var constructor = constructors[name]
-                    if (constructor == null) {
-                        val clazz = Class
-                            .forName(name, false, context.classLoader) as Class<Any>
-                        constructor = clazz.getConstructor()
-                        constructor.isAccessible = true
-                        constructors[name] = constructor
-                    }
-                    val newInstance = constructor!!.newInstance()
-                    if (newInstance is MarkwonBuilderFactory2) {
-                        val builder: Markwon.Builder =
-                            MutableBuilder(Markwon.builderNoCore(context))
-                        newInstance.initBuilder(
-                            context,
-                            attrs,
-                            defStyleAttr,
-                            defStyleRes,
-                            builder
-                        )
-                        builder
-                    } else {
-                        (newInstance as MarkwonBuilderFactory)
-                            .createBuilder(context, attrs, defStyleAttr, defStyleRes)
-                    }
-                } catch (c: ClassNotFoundException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                } catch (c: NoSuchMethodException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                } catch (c: IllegalAccessException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                } catch (c: InvocationTargetException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                } catch (c: InstantiationException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                }
-            } catch (ignore: ClassNotFoundException) {
-                var constructors = CONSTRUCTORS.get()
-                if (constructors == null) {
-                    constructors = LinkedHashMap()
-                    CONSTRUCTORS.set(constructors)
-                }
-                try {
-                    var constructor = constructors[name]
-                    if (constructor == null) {
-                        val clazz = Class
-                            .forName(name, false, context.classLoader) as Class<Any>
-                        constructor = clazz.getConstructor()
-                        constructor.isAccessible = true
-                        constructors[name] = constructor
-                    }
-                    val newInstance = constructor!!.newInstance()
-                    if (newInstance is MarkwonBuilderFactory2) {
-                        val builder: Markwon.Builder =
-                            MutableBuilder(Markwon.builderNoCore(context))
-                        newInstance.initBuilder(
-                            context,
-                            attrs,
-                            defStyleAttr,
-                            defStyleRes,
-                            builder
-                        )
-                        builder
-                    } else {
-                        (newInstance as MarkwonBuilderFactory)
-                            .createBuilder(context, attrs, defStyleAttr, defStyleRes)
-                    }
-                } catch (c: ClassNotFoundException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                } catch (c: NoSuchMethodException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                } catch (c: IllegalAccessException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                } catch (c: InvocationTargetException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                } catch (c: InstantiationException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                }
-            } catch (ignore: NoSuchFieldException) {
-                var constructors = CONSTRUCTORS.get()
-                if (constructors == null) {
-                    constructors = LinkedHashMap()
-                    CONSTRUCTORS.set(constructors)
-                }
-                try {
-                    var constructor = constructors[name]
-                    if (constructor == null) {
-                        val clazz = Class
-                            .forName(name, false, context.classLoader) as Class<Any>
-                        constructor = clazz.getConstructor()
-                        constructor.isAccessible = true
-                        constructors[name] = constructor
-                    }
-                    val newInstance = constructor!!.newInstance()
-                    if (newInstance is MarkwonBuilderFactory2) {
-                        val builder: Markwon.Builder =
-                            MutableBuilder(Markwon.builderNoCore(context))
-                        newInstance.initBuilder(
-                            context,
-                            attrs,
-                            defStyleAttr,
-                            defStyleRes,
-                            builder
-                        )
-                        builder
-                    } else {
-                        (newInstance as MarkwonBuilderFactory)
-                            .createBuilder(context, attrs, defStyleAttr, defStyleRes)
-                    }
-                } catch (c: ClassNotFoundException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                } catch (c: NoSuchMethodException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                } catch (c: IllegalAccessException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                } catch (c: InvocationTargetException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
-                } catch (c: InstantiationException) {
-                    throw IllegalArgumentException(
-                        "Could not inflate MarkwonBuilderFactory $name",
-                        c
-                    )
+        }
+
+        /**
+         * Builds and registers the [Markwon] a view inflated with [defStyleRes] would use, then
+         * renders and measures a sample document so style templates, fonts and parser classes are
+         * loaded.
+         */
+        @JvmStatic
+        fun prewarm(
+            context: Context,
+            @StyleRes defStyleRes: Int,
+            markwonFactoryBuilderClassName: String?,
+            executor: Executor
+        ) {
+            // The registry is keyed on the theme instance, an instance built for the application
+            // theme would never be looked up.
+            if (context.theme === context.applicationContext.theme) {
+                throw IllegalArgumentException(
+                    "prewarm needs the context views are inflated with, not the application context"
+                )
+            }
+            executor.execute {
+                val factory = resolveFactory(context, markwonFactoryBuilderClassName)
+                val markwon = MarkwonRegistry.prewarm(
+                    context,
+                    R.attr.markdownStyles,
+                    defStyleRes,
+                    markwonFactoryBuilderClassName
+                ) {
+                    createMarkwon(context, null, R.attr.markdownStyles, defStyleRes, factory)
                 }
+                val rendered = markwon.toMarkdown(PREWARM_MARKDOWN)
+                // Measuring applies the metric affecting spans, loading their typefaces.
+                Layout.getDesiredWidth(rendered, TextPaint())
+            }
+        }
+
+        private fun createMarkwon(
+            context: Context,
+            attrs: AttributeSet?,
+            @AttrRes defStyleAttr: Int,
+            @StyleRes defStyleRes: Int,
+            factory: Any?
+        ): Markwon {
+            val plugin = MarkdownViewPlugin(context, attrs, defStyleAttr, defStyleRes)
+            if (factory == null) {
+                return Markwon.builder(context).usePlugin(plugin).build()
+            }
+
+            val builder = parseMarkwonBuilder(context, attrs, defStyleAttr, defStyleRes, factory)
+            val staticBuilder = if (builder is MutableBuilder) {
+                builder
+            } else {
+                MutableBuilder(builder)
+            }
+            val indexOfCorePlugin = staticBuilder.indexOfFirst { plugin ->
+                plugin is CorePlugin
+            }
+
+            val factoryContainsMarkdownViewPlugin = staticBuilder.find { plugin ->
+                plugin is MarkdownViewPlugin
+            } != null
+
+            if (!factoryContainsMarkdownViewPlugin) {
+                // Ensure MarkdownViewPlugin if factory not pointing to one already otherwise
+                // `this` class has no purpose.
+                staticBuilder.usePlugin(indexOfCorePlugin.coerceAtLeast(0), plugin)
+            }
+            return staticBuilder.build()
+        }
+
+        /**
+         * @return the factory [markwonFactoryBuilderClassName] names, a new instance unless it is
+         * registered or a Kotlin object.
+         */
+        private fun resolveFactory(
+            context: Context,
+            markwonFactoryBuilderClassName: String?
+        ): Any? {
+            return markwonFactoryBuilderClassName?.let {
+                MarkwonFactoryRegistry.obtain(context.classLoader, it)
+            }
+        }
+
+        @Suppress("DEPRECATION")
+        private fun parseMarkwonBuilder(
+            context: Context,
+            attrs: AttributeSet?,
+            @AttrRes defStyleAttr: Int,
+            @StyleRes defStyleRes: Int,
+            factory: Any
+        ): Markwon.Builder {
+            return if (factory is MarkwonBuilderFactory2) {
+                val builder: Markwon.Builder = MutableBuilder(Markwon.builderNoCore(context))
+                factory.initBuilder(context, attrs, defStyleAttr, defStyleRes, builder)
+                builder
+            } else {
+                (factory as MarkwonBuilderFactory)
+                    .createBuilder(context, attrs, defStyleAttr, defStyleRes)
             }
         }
     }
@@ -2,6 +2,7 @@ package se.ingenuity.markdownview;
 
 import android.content.Context;
 import android.os.Parcelable;
+import android.text.Spanned;
 import android.util.AttributeSet;
 
 import androidx.annotation.AttrRes;
@@ -11,6 +12,8 @@ import androidx.annotation.StyleRes;
 
 import com.google.android.material.textview.MaterialTextView;
 
+import java.util.concurrent.Executor;
+
 import io.noties.markwon.MarkwonPlugin;
 
 public class MarkdownMaterialTextView extends MaterialTextView implements MarkdownView {
@@ -44,6 +47,15 @@ public class MarkdownMaterialTextView extends MaterialTextView implements Markdo
     }
 
     @NonNull
+    @Override
+    public void setText(CharSequence text, BufferType type) {
+        // Null while the super constructor sets the initial text.
+        if (markdownHelper != null) {
+            markdownHelper.onSetText();
+        }
+        super.setText(text, type);
+    }
+
     @Override
     public Parcelable onSaveInstanceState() {
         return markdownHelper.onSaveInstanceState(super.onSaveInstanceState());
@@ -55,11 +67,70 @@ public class MarkdownMaterialTextView extends MaterialTextView implements Markdo
         markdownHelper.onRestoreInstanceState(state);
     }
 
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final long start = markdownHelper.onMeasureStart();
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        markdownHelper.onMeasureEnd(start);
+    }
+
     @Override
     public void setMarkdown(@Nullable String markdown) {
         markdownHelper.setMarkdown(markdown);
     }
 
+    @Override
+    public void setMarkdown(@Nullable String markdown, boolean force) {
+        markdownHelper.setMarkdown(markdown, force);
+    }
+
+    @NonNull
+    @Override
+    public Cancellable setMarkdownAsync(@Nullable String markdown, @NonNull Executor executor) {
+        return markdownHelper.setMarkdownAsync(markdown, executor);
+    }
+
+    @Override
+    public void setRenderedMarkdown(@NonNull Spanned rendered) {
+        markdownHelper.setRenderedMarkdown(rendered);
+    }
+
+    @Override
+    public void appendMarkdown(@NonNull CharSequence markdown) {
+        markdownHelper.appendMarkdown(markdown);
+    }
+
+    @Override
+    public void setRenderCache(@Nullable MarkdownRenderCache cache) {
+        markdownHelper.setRenderCache(cache);
+    }
+
+    @Override
+    public void setPrecomputedTextExecutor(@Nullable Executor executor) {
+        markdownHelper.setPrecomputedTextExecutor(executor);
+    }
+
+    @Override
+    public void setRenderListener(@Nullable MarkdownRenderListener listener) {
+        markdownHelper.setRenderListener(listener);
+    }
+
+    @Override
+    public void setSavedStateThreshold(int length) {
+        markdownHelper.setSavedStateThreshold(length);
+    }
+
+    @Override
+    public int getSkippedRenderCount() {
+        return markdownHelper.getSkippedRenderCount();
+    }
+
+    @NonNull
+    @Override
+    public PluginEditor editPlugins(boolean update) {
+        return markdownHelper.editPlugins(update);
+    }
+
     @Override
     public void addMarkwonPlugins(boolean update, @NonNull MarkwonPlugin... plugins) {
         markdownHelper.addMarkwonPlugins(update, plugins);
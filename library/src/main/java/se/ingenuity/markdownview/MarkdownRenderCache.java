@@ -0,0 +1,139 @@
+package se.ingenuity.markdownview;
+
+import android.text.Spanned;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+import io.noties.markwon.MarkwonPlugin;
+
+/**
+ * Bounded LRU cache of rendered markdown. Entries are keyed on the markdown source together with
+ * the plugins of the {@link io.noties.markwon.Markwon} that rendered it, so views sharing a
+ * configuration share cached output. A cache hit skips parsing and rendering entirely.
+ * <p>
+ * Hits share span instances with the other views showing the same markdown, so output with spans
+ * tied to a view, e.g. async drawables of image plugins, is not cached.
+ * <p>
+ * The cache holds on to the plugins of the views using it, scope it accordingly, e.g. per screen.
+ */
+public final class MarkdownRenderCache {
+    private static final int BYTES_PER_CHAR = 2;
+    /**
+     * Rough estimate of a span object together with its start, end and flags entries.
+     */
+    private static final int BYTES_PER_SPAN = 48;
+
+    @NonNull
+    private final LruCache<Key, Entry> cache;
+
+    /**
+     * @param maxSizeBytes estimated upper bound of the memory held by the cache.
+     */
+    public MarkdownRenderCache(int maxSizeBytes) {
+        cache = new LruCache<Key, Entry>(maxSizeBytes) {
+            @Override
+            protected int sizeOf(@NonNull Key key, @NonNull Entry value) {
+                return value.size;
+            }
+        };
+    }
+
+    public int hitCount() {
+        return cache.hitCount();
+    }
+
+    public int missCount() {
+        return cache.missCount();
+    }
+
+    public int evictionCount() {
+        return cache.evictionCount();
+    }
+
+    /**
+     * @return the estimated number of bytes held by the cache.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    public int maxSize() {
+        return cache.maxSize();
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    @Nullable
+    Spanned get(@NonNull Key key) {
+        final Entry entry = cache.get(key);
+        return entry != null ? entry.spanned : null;
+    }
+
+    void put(@NonNull Key key, @NonNull Spanned spanned) {
+        final int spans = spanned.getSpans(0, spanned.length(), Object.class).length;
+        final int size = (key.markdown.length() + spanned.length()) * BYTES_PER_CHAR
+                + spans * BYTES_PER_SPAN;
+        cache.put(key, new Entry(spanned, size));
+    }
+
+    private static final class Entry {
+        @NonNull
+        final Spanned spanned;
+        final int size;
+
+        Entry(@NonNull Spanned spanned, int size) {
+            this.spanned = spanned;
+            this.size = size;
+        }
+    }
+
+    static final class Key {
+        /**
+         * Configuration fingerprint, plugins are compared by identity.
+         */
+        @NonNull
+        private final List<? extends MarkwonPlugin> plugins;
+        @NonNull
+        private final String markdown;
+        private final int hash;
+
+        Key(@NonNull List<? extends MarkwonPlugin> plugins, @NonNull String markdown) {
+            this.plugins = plugins;
+            this.markdown = markdown;
+
+            int hash = markdown.hashCode();
+            for (MarkwonPlugin plugin : plugins) {
+                hash = 31 * hash + System.identityHashCode(plugin);
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            final Key other = (Key) o;
+            if (hash != other.hash || plugins.size() != other.plugins.size()) {
+                return false;
+            }
+            for (int i = 0; i < plugins.size(); i++) {
+                if (plugins.get(i) != other.plugins.get(i)) {
+                    return false;
+                }
+            }
+            return markdown.equals(other.markdown);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package se.ingenuity.markdownview;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.text.Spanned;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders many independent documents in parallel on a bounded pool of worker threads, e.g. the
+ * snippets of a search result. Higher priority documents are picked up first, documents of equal
+ * priority in submission order. Results are delivered on the main thread, ready for
+ * {@link MarkdownView#setRenderedMarkdown(Spanned)}.
+ */
+public final class MarkdownRenderEngine {
+    public static final int PRIORITY_DEFAULT = 0;
+    /**
+     * For documents that are on screen.
+     */
+    public static final int PRIORITY_VISIBLE = 10;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    @NonNull
+    private final MarkdownRenderer renderer;
+    @NonNull
+    private final ThreadPoolExecutor executor;
+    @NonNull
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Uses one worker per available core.
+     */
+    public MarkdownRenderEngine(@NonNull MarkdownRenderer renderer) {
+        this(renderer, Runtime.getRuntime().availableProcessors());
+    }
+
+    public MarkdownRenderEngine(@NonNull MarkdownRenderer renderer, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads < 1: " + threads);
+        }
+        this.renderer = renderer;
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(),
+                runnable -> {
+                    final Thread thread = new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, "MarkdownRenderEngine-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @NonNull
+    public MarkdownView.Cancellable render(@NonNull String markdown, @NonNull Callback callback) {
+        return render(markdown, PRIORITY_DEFAULT, callback);
+    }
+
+    /**
+     * Queues {@code markdown} for rendering. A cancelled document that has not started yet is
+     * dropped from the queue, one that has is not delivered. After {@link #shutdown()} the
+     * returned handle is already cancelled and {@code callback} is never called.
+     */
+    @NonNull
+    public MarkdownView.Cancellable render(
+            @NonNull String markdown,
+            int priority,
+            @NonNull Callback callback) {
+        final Task task = new Task(markdown, priority, sequence.getAndIncrement(), callback);
+        // The executor hands tasks to new core threads directly, bypassing the priority queue.
+        // Workers are started up front, and again after idling out, so every task is queued.
+        try {
+            executor.prestartAllCoreThreads();
+            executor.execute(task);
+        } catch (RejectedExecutionException ignore) {
+            // Only after shutdown as the queue is unbounded, the task then reports cancelled.
+        }
+        return task;
+    }
+
+    /**
+     * Drops queued documents and stops the workers once the running ones are done. No results
+     * are delivered after this, documents rendered later are cancelled right away.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        executor.getQueue().clear();
+    }
+
+    public interface Callback {
+        @MainThread
+        void onRendered(@NonNull Spanned rendered);
+    }
+
+    private final class Task implements Runnable, Comparable<Task>, MarkdownView.Cancellable {
+        @NonNull
+        private final String markdown;
+        private final int priority;
+        private final long sequence;
+        @NonNull
+        private final Callback callback;
+        private volatile boolean cancelled;
+
+        Task(@NonNull String markdown, int priority, long sequence, @NonNull Callback callback) {
+            this.markdown = markdown;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (isCancelled()) {
+                return;
+            }
+            final Spanned rendered = renderer.render(markdown);
+            MAIN_HANDLER.post(() -> {
+                if (!isCancelled()) {
+                    callback.onRendered(rendered);
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(@NonNull Task other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            executor.remove(this);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled || executor.isShutdown();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package se.ingenuity.markdownview;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+/**
+ * Receives per-render timings from a {@link MarkdownView}.
+ *
+ * @see MarkdownView#setRenderListener(MarkdownRenderListener)
+ */
+public interface MarkdownRenderListener {
+    @MainThread
+    void onRender(@NonNull MarkdownRenderStats stats);
+}
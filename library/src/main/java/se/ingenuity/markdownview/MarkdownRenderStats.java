@@ -0,0 +1,107 @@
+package se.ingenuity.markdownview;
+
+import androidx.annotation.NonNull;
+
+import org.commonmark.node.Node;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Timings and counts of a single render. All durations are in nanoseconds.
+ */
+public final class MarkdownRenderStats {
+    /**
+     * Duration of a phase that did not run or could not be measured, e.g. layout of a view that
+     * was not measured before the next render.
+     */
+    public static final long NOT_MEASURED = -1;
+
+    long buildNanos = NOT_MEASURED;
+    long parseNanos = NOT_MEASURED;
+    long renderNanos = NOT_MEASURED;
+    long precomputeNanos = NOT_MEASURED;
+    long setTextNanos = NOT_MEASURED;
+    long layoutNanos = NOT_MEASURED;
+    int inputLength;
+    boolean cacheHit;
+
+    @NonNull
+    private final Map<Class<? extends Node>, Integer> nodeCounts = new HashMap<>();
+    @NonNull
+    private final Map<Class<? extends Node>, Long> spanFactoryNanos = new HashMap<>();
+
+    MarkdownRenderStats() {
+    }
+
+    /**
+     * @return time spent building {@link io.noties.markwon.Markwon} after a plugin change.
+     */
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * @return time spent in {@link io.noties.markwon.Markwon#render}, including the span
+     * factories.
+     */
+    public long getRenderNanos() {
+        return renderNanos;
+    }
+
+    public long getPrecomputeNanos() {
+        return precomputeNanos;
+    }
+
+    public long getSetTextNanos() {
+        return setTextNanos;
+    }
+
+    /**
+     * @return duration of the first measure pass after the text was set, 0 if the text view
+     * already laid out the text as part of setting it.
+     */
+    public long getLayoutNanos() {
+        return layoutNanos;
+    }
+
+    public int getInputLength() {
+        return inputLength;
+    }
+
+    /**
+     * @return true if the rendered output came from a {@link MarkdownRenderCache}, parse and
+     * render were then skipped.
+     */
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    @NonNull
+    public Map<Class<? extends Node>, Integer> getNodeCounts() {
+        return Collections.unmodifiableMap(nodeCounts);
+    }
+
+    /**
+     * @return time spent in span factories per node type.
+     */
+    @NonNull
+    public Map<Class<? extends Node>, Long> getSpanFactoryNanos() {
+        return Collections.unmodifiableMap(spanFactoryNanos);
+    }
+
+    void addNode(@NonNull Class<? extends Node> node) {
+        final Integer count = nodeCounts.get(node);
+        nodeCounts.put(node, count != null ? count + 1 : 1);
+    }
+
+    void addSpanFactoryNanos(@NonNull Class<? extends Node> node, long nanos) {
+        final Long total = spanFactoryNanos.get(node);
+        spanFactoryNanos.put(node, total != null ? total + nanos : nanos);
+    }
+}
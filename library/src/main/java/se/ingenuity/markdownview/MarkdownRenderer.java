@@ -0,0 +1,120 @@
+package se.ingenuity.markdownview;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Spanned;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.StyleRes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import io.noties.markwon.Markwon;
+
+/**
+ * Renders markdown without a view, styled like a {@link MarkdownView} constructed with the same
+ * {@code defStyleRes} and {@code markwonFactoryBuilder}, e.g. to render upcoming items of a list
+ * ahead of binding them. Apply the output with {@link MarkdownView#setRenderedMarkdown(Spanned)}.
+ */
+public final class MarkdownRenderer {
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    @NonNull
+    private final Markwon markwon;
+
+    public MarkdownRenderer(@NonNull Context context) {
+        this(context, 0, null);
+    }
+
+    public MarkdownRenderer(
+            @NonNull Context context,
+            @StyleRes int defStyleRes,
+            @Nullable Class<?> markwonFactoryBuilder) {
+        markwon = MarkdownHelper.obtainMarkwon(
+                context,
+                null,
+                R.attr.markdownStyles,
+                defStyleRes,
+                markwonFactoryBuilder != null ? markwonFactoryBuilder.getName() : null);
+    }
+
+    @NonNull
+    @AnyThread
+    public Spanned render(@NonNull String markdown) {
+        return markwon.toMarkdown(markdown);
+    }
+
+    @NonNull
+    @AnyThread
+    public List<Spanned> render(@NonNull List<String> markdown) {
+        final List<Spanned> rendered = new ArrayList<>(markdown.size());
+        for (String item : markdown) {
+            rendered.add(render(item));
+        }
+        return rendered;
+    }
+
+    /**
+     * Renders {@code markdown} on {@code executor} and delivers the result, in the same order, to
+     * {@code callback} on the main thread unless cancelled first.
+     */
+    @NonNull
+    public MarkdownView.Cancellable render(
+            @NonNull List<String> markdown,
+            @NonNull Executor executor,
+            @NonNull Callback callback) {
+        final Task task = new Task(new ArrayList<>(markdown), callback);
+        executor.execute(task);
+        return task;
+    }
+
+    public interface Callback {
+        @MainThread
+        void onRendered(@NonNull List<Spanned> rendered);
+    }
+
+    private final class Task implements Runnable, MarkdownView.Cancellable {
+        @NonNull
+        private final List<String> markdown;
+        @NonNull
+        private final Callback callback;
+        private volatile boolean cancelled;
+
+        Task(@NonNull List<String> markdown, @NonNull Callback callback) {
+            this.markdown = markdown;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            final List<Spanned> rendered = new ArrayList<>(markdown.size());
+            for (String item : markdown) {
+                if (cancelled) {
+                    return;
+                }
+                rendered.add(render(item));
+            }
+            MAIN_HANDLER.post(() -> {
+                if (!cancelled) {
+                    callback.onRendered(rendered);
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
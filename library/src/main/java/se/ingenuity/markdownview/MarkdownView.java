@@ -1,14 +1,164 @@
 package se.ingenuity.markdownview;
 
+import android.content.Context;
+import android.text.Spanned;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.StyleRes;
+
+import java.util.concurrent.Executor;
 
 import io.noties.markwon.MarkwonPlugin;
+import se.ingenuity.markdownview.util.MarkwonBuilderFactory2;
+import se.ingenuity.markdownview.util.MarkwonFactoryRegistry;
 
 public interface MarkdownView {
+    /**
+     * Builds the Markwon for views styled with {@code defStyleRes} on a background thread and
+     * loads the fonts and parser classes a first render needs, e.g. in {@code onCreate} before
+     * {@code setContentView}.
+     * <p>
+     * Views inflated from a context with the same theme instance, without inline style attributes
+     * and with {@code markwonFactoryBuilder} naming the same class reuse the prepared instance. It
+     * is only kept until the first one does or the main thread is next idle after prewarming, so
+     * views inflated later, e.g. by a list, reuse it only while other views still use it. Other
+     * views still benefit from the loaded classes and fonts.
+     *
+     * @param context     the context views are inflated with, typically the activity. Views are
+     *                    never inflated with the theme of the application context.
+     * @param defStyleRes the {@code defStyleRes} views are constructed with, 0 when inflated
+     *                    from a layout.
+     * @throws IllegalArgumentException if {@code context} has the theme of the application
+     *                                  context.
+     */
+    static void prewarm(
+            @NonNull Context context,
+            @StyleRes int defStyleRes,
+            @Nullable Class<?> markwonFactoryBuilder) {
+        prewarm(context, defStyleRes, markwonFactoryBuilder,
+                command -> new Thread(command, "MarkdownView-prewarm").start());
+    }
+
+    /**
+     * Like {@link #prewarm(Context, int, Class)} but runs on {@code executor}.
+     */
+    static void prewarm(
+            @NonNull Context context,
+            @StyleRes int defStyleRes,
+            @Nullable Class<?> markwonFactoryBuilder,
+            @NonNull Executor executor) {
+        MarkdownHelper.prewarm(
+                context,
+                defStyleRes,
+                markwonFactoryBuilder != null ? markwonFactoryBuilder.getName() : null,
+                executor);
+    }
+
+    /**
+     * Registers {@code factory} for views whose {@code markwonFactoryBuilder} attribute is
+     * {@code name}, skipping the reflective lookup. Register before such views are inflated.
+     */
+    static void registerFactory(@NonNull String name, @NonNull MarkwonBuilderFactory2 factory) {
+        MarkwonFactoryRegistry.INSTANCE.register(name, factory);
+    }
+
     void setMarkdown(@Nullable String markdown);
 
+    /**
+     * Like {@link #setMarkdown(String)} but {@code force} re-renders even if {@code markdown} is
+     * already rendered with the current plugins and configuration.
+     */
+    void setMarkdown(@Nullable String markdown, boolean force);
+
+    /**
+     * Parses and renders {@code markdown} on {@code executor}, only the final {@code setText} is
+     * posted to the main thread. Any later call to {@link #setMarkdown(String)} or
+     * {@link #setMarkdownAsync(String, Executor)} on the same view discards the pending result.
+     */
+    @NonNull
+    Cancellable setMarkdownAsync(@Nullable String markdown, @NonNull Executor executor);
+
+    /**
+     * Sets markdown rendered ahead of time by a {@link MarkdownRenderer} with this view's style.
+     * The view does not know the source, so it is neither saved in the instance state nor
+     * re-rendered on plugin changes.
+     */
+    void setRenderedMarkdown(@NonNull Spanned rendered);
+
+    /**
+     * Appends {@code markdown} to the current content, e.g. while streaming. Finished top-level
+     * blocks keep their rendered spans and only the trailing open block is re-rendered and
+     * patched into an {@link android.text.Editable} rather than replacing the whole text.
+     * <p>
+     * Appending continues from the last markdown set, text set without its source, e.g. with
+     * {@link #setRenderedMarkdown(Spanned)}, is discarded.
+     */
+    void appendMarkdown(@NonNull CharSequence markdown);
+
+    /**
+     * Sets an optional cache of rendered output, shareable between views. Pass {@code null} to
+     * always render.
+     */
+    void setRenderCache(@Nullable MarkdownRenderCache cache);
+
+    /**
+     * Opts in to computing {@link androidx.core.text.PrecomputedTextCompat} for rendered markdown
+     * on {@code executor}, using the view's text metrics. The text is applied once measuring is
+     * done so long documents do not block the main thread during layout. Pass {@code null} to set
+     * the text directly, which is the default.
+     */
+    void setPrecomputedTextExecutor(@Nullable Executor executor);
+
+    /**
+     * Registers a listener receiving per-phase timings of every render. Instrumentation is only
+     * installed while a listener is registered, without one rendering has no extra cost.
+     */
+    void setRenderListener(@Nullable MarkdownRenderListener listener);
+
+    /**
+     * Markdown longer than {@code length} characters is not written to the saved instance state,
+     * only a key to it. The content itself is kept in memory and in the cache directory, so large
+     * documents do not risk a {@link android.os.TransactionTooLargeException}. After process
+     * death the content is read back off the main thread and shown unless something was set in
+     * the meantime. By default the markdown is always saved in full.
+     */
+    void setSavedStateThreshold(int length);
+
+    /**
+     * @return number of {@link #setMarkdown(String)} calls skipped because the content was
+     * already rendered.
+     */
+    int getSkippedRenderCount();
+
     void addMarkwonPlugins(boolean update, @NonNull MarkwonPlugin... plugins);
 
     void removeMarkwonPlugins(boolean update, @NonNull MarkwonPlugin... plugins);
+
+    /**
+     * Starts a batch of plugin changes that {@link PluginEditor#commit()} applies with a single
+     * rebuild. With {@code update} the current markdown is re-rendered once, on the next frame or
+     * the next {@link #setMarkdown(String)}, whichever comes first.
+     */
+    @NonNull
+    PluginEditor editPlugins(boolean update);
+
+    interface PluginEditor {
+        @NonNull
+        PluginEditor add(@NonNull MarkwonPlugin... plugins);
+
+        @NonNull
+        PluginEditor remove(@NonNull MarkwonPlugin... plugins);
+
+        void commit();
+    }
+
+    /**
+     * Handle to a pending {@link #setMarkdownAsync(String, Executor)} render.
+     */
+    interface Cancellable {
+        void cancel();
+
+        boolean isCancelled();
+    }
 }
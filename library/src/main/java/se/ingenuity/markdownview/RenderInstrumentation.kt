@@ -0,0 +1,77 @@
+package se.ingenuity.markdownview
+
+import io.noties.markwon.AbstractMarkwonPlugin
+import io.noties.markwon.MarkwonConfiguration
+import io.noties.markwon.MarkwonSpansFactory
+import io.noties.markwon.RenderProps
+import io.noties.markwon.SpanFactory
+import org.commonmark.node.*
+
+/**
+ * Plugin timing the span factories of the common node types. It is only part of a
+ * [io.noties.markwon.Markwon] while a [MarkdownRenderListener] is registered and has to be the last
+ * plugin to see the final factories.
+ */
+internal object RenderInstrumentation : AbstractMarkwonPlugin() {
+    private val STATS = ThreadLocal<MarkdownRenderStats>()
+
+    override fun configureSpansFactory(builder: MarkwonSpansFactory.Builder) {
+        wrap(builder, BlockQuote::class.java)
+        wrap(builder, Code::class.java)
+        wrap(builder, Emphasis::class.java)
+        wrap(builder, FencedCodeBlock::class.java)
+        wrap(builder, Heading::class.java)
+        wrap(builder, Image::class.java)
+        wrap(builder, IndentedCodeBlock::class.java)
+        wrap(builder, Link::class.java)
+        wrap(builder, ListItem::class.java)
+        wrap(builder, Paragraph::class.java)
+        wrap(builder, StrongEmphasis::class.java)
+        wrap(builder, ThematicBreak::class.java)
+    }
+
+    /**
+     * Runs [render] with span factory timings collected into [stats].
+     */
+    inline fun <T> collect(stats: MarkdownRenderStats, render: () -> T): T {
+        setStats(stats)
+        try {
+            return render()
+        } finally {
+            setStats(null)
+        }
+    }
+
+    fun setStats(stats: MarkdownRenderStats?) {
+        if (stats == null) STATS.remove() else STATS.set(stats)
+    }
+
+    fun countNodes(parent: Node, stats: MarkdownRenderStats) {
+        var node = parent.firstChild
+        while (node != null) {
+            stats.addNode(node.javaClass)
+            countNodes(node, stats)
+            node = node.next
+        }
+    }
+
+    private fun <N : Node> wrap(builder: MarkwonSpansFactory.Builder, node: Class<N>) {
+        val factory = builder.getFactory(node) ?: return
+        builder.setFactory(node, TimedSpanFactory(node, factory))
+    }
+
+    private class TimedSpanFactory(
+        private val node: Class<out Node>,
+        private val delegate: SpanFactory
+    ) : SpanFactory {
+        override fun getSpans(configuration: MarkwonConfiguration, props: RenderProps): Any? {
+            val stats = STATS.get() ?: return delegate.getSpans(configuration, props)
+            val start = System.nanoTime()
+            try {
+                return delegate.getSpans(configuration, props)
+            } finally {
+                stats.addSpanFactoryNanos(node, System.nanoTime() - start)
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package se.ingenuity.markdownview.util
+
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import android.util.LruCache
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+
+/**
+ * Holds markdown too large for a saved state [android.os.Parcel], keyed by its SHA-256. Entries
+ * are kept in memory and written to the cache directory so they survive process death too.
+ *
+ * Entries stay in memory at least until their file is written, even when larger than the memory
+ * cache. Reads from disk run on the same single thread as the writes, after pending ones.
+ */
+internal object MarkdownStateStore {
+    private const val DIRECTORY = "markdownview-state"
+    private const val MAX_FILES = 32
+    private const val MAX_MEMORY_CHARS = 1 shl 21
+
+    private val memory = object : LruCache<String, String>(MAX_MEMORY_CHARS) {
+        override fun sizeOf(key: String, value: String): Int = value.length
+    }
+
+    /**
+     * Entries whose file is not written yet. Guarded by itself.
+     */
+    private val pending = HashMap<String, String>()
+
+    private val diskExecutor: Executor = Executors.newSingleThreadExecutor()
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    /**
+     * @return key to [peek] or [read] [markdown] back with.
+     */
+    fun put(context: Context, markdown: String): String {
+        val key = keyOf(markdown)
+        if (memory.put(key, markdown) == null) {
+            synchronized(pending) {
+                pending[key] = markdown
+            }
+            val appContext = context.applicationContext
+            diskExecutor.execute {
+                try {
+                    write(File(appContext.cacheDir, DIRECTORY), key, markdown)
+                } finally {
+                    synchronized(pending) {
+                        pending.remove(key)
+                    }
+                }
+            }
+        }
+        return key
+    }
+
+    /**
+     * @return the markdown stored under [key] if it is in memory, without touching the disk.
+     */
+    fun peek(key: String): String? {
+        memory.get(key)?.also { return it }
+        synchronized(pending) {
+            return pending[key]
+        }
+    }
+
+    /**
+     * Reads the markdown stored under [key] off the main thread and delivers it, or null if it
+     * has been evicted, to [callback] on the main thread.
+     */
+    fun read(context: Context, key: String, callback: (String?) -> Unit) {
+        val appContext = context.applicationContext
+        diskExecutor.execute {
+            val markdown = peek(key) ?: try {
+                File(File(appContext.cacheDir, DIRECTORY), key)
+                    .takeIf { it.exists() }
+                    ?.readText()
+                    ?.also { memory.put(key, it) }
+            } catch (ignore: IOException) {
+                null
+            }
+            mainHandler.post { callback(markdown) }
+        }
+    }
+
+    private fun write(directory: File, key: String, markdown: String) {
+        try {
+            directory.mkdirs()
+            File(directory, key).writeText(markdown)
+        } catch (ignore: IOException) {
+            // The content is lost after process death, restore then finds nothing.
+            return
+        }
+        directory.listFiles()
+            ?.sortedByDescending { it.lastModified() }
+            ?.drop(MAX_FILES)
+            ?.forEach { it.delete() }
+    }
+
+    private fun keyOf(markdown: String): String {
+        val digest = MessageDigest.getInstance("SHA-256").digest(markdown.toByteArray())
+        return digest.joinToString("") { "%02x".format(it) }
+    }
+}
@@ -0,0 +1,93 @@
+package se.ingenuity.markdownview.util
+
+/**
+ * Accumulates streamed markdown and splits it into top-level blocks that are finished and the
+ * trailing block that is still open, i.e. might change with more input.
+ *
+ * A block is considered finished once it is followed by a blank line and a line that does not
+ * start with whitespace, outside of fenced code blocks. Indented lines might continue a list item
+ * or an indented code block so they keep the block open. Link reference definitions appearing
+ * after a finished block are not applied to it.
+ */
+internal class MarkdownStream(initial: CharSequence) {
+    private val source = StringBuilder(initial)
+
+    /**
+     * Index into [source] where the open block starts.
+     */
+    private var openBlockStart = 0
+
+    /**
+     * Index into [source] of the first line that has not been scanned yet.
+     */
+    private var lineStart = 0
+
+    /**
+     * Opening fence of the fenced code block the scan is in, if any.
+     */
+    private var fence: String? = null
+
+    private var afterBlankLine = false
+
+    fun append(markdown: CharSequence) {
+        source.append(markdown)
+    }
+
+    /**
+     * Scans complete lines appended since the last call.
+     *
+     * @return source of the blocks that got finished since the last call, or null if none did.
+     */
+    fun closeBlocks(): String? {
+        var closeAt = -1
+        while (true) {
+            val lineEnd = source.indexOf('\n', lineStart)
+            if (lineEnd < 0) {
+                break
+            }
+            val line = source.substring(lineStart, lineEnd)
+            val fence = fence
+            if (fence != null) {
+                if (isClosingFence(line, fence)) {
+                    this.fence = null
+                }
+            } else if (line.isBlank()) {
+                afterBlankLine = true
+            } else {
+                if (afterBlankLine && !line[0].isWhitespace()) {
+                    closeAt = lineStart
+                }
+                afterBlankLine = false
+                this.fence = FENCE.find(line)?.groupValues?.get(1)
+            }
+            lineStart = lineEnd + 1
+        }
+
+        if (closeAt <= openBlockStart) {
+            return null
+        }
+        val closed = source.substring(openBlockStart, closeAt)
+        openBlockStart = closeAt
+        return closed
+    }
+
+    /**
+     * @return source of the trailing block that is still open.
+     */
+    fun openBlock(): String = source.substring(openBlockStart)
+
+    override fun toString(): String = source.toString()
+
+    private companion object {
+        val FENCE = Regex("^ {0,3}(`{3,}|~{3,})")
+
+        fun isClosingFence(line: String, fence: String): Boolean {
+            val trimmed = line.trimStart(' ')
+            if (line.length - trimmed.length > 3 || !trimmed.startsWith(fence)) {
+                return false
+            }
+            // A closing fence is at least as long as the opening one and has no info string.
+            return trimmed.trimEnd().all { it == fence[0] }
+        }
+    }
+}
@@ -10,6 +10,11 @@ import io.noties.markwon.core.MarkwonTheme
 import org.commonmark.node.*
 import se.ingenuity.markdownview.util.ResolvedAttributes.StyleGroup
 
+/**
+ * Applies the markdown styles of a view. Attributes are resolved up front into immutable
+ * [ResolvedAttributes] and the span factories only read them and the [SpanGenerator], so markdown
+ * may be rendered with the plugin on any thread.
+ */
 class MarkdownViewPlugin(
     context: Context,
     attrs: AttributeSet?,
@@ -21,7 +26,7 @@ class MarkdownViewPlugin(
 
     init {
         spanGenerator = SpanGenerator(context)
-        resolvedAttributes = ResolvedAttributes(context, attrs, defStyleAttr, defStyleRes)
+        resolvedAttributes = ResolvedAttributes.obtain(context, attrs, defStyleAttr, defStyleRes)
     }
 
     override fun configureTheme(builder: MarkwonTheme.Builder) {
@@ -85,6 +90,13 @@ class MarkdownViewPlugin(
         builder: MarkwonSpansFactory.Builder,
         styleGroup: StyleGroup
     ) {
+        // Without a style the core factory is kept, which only prepend and append allow.
+        if (resolvedAttributes.mergeStyleGroups && styleGroup.hasStyle()) {
+            builder.setFactory(node) { _, _ ->
+                spanGenerator.createSpansForStyleGroup(styleGroup)
+            }
+            return
+        }
         if (styleGroup.hasPreStyle()) {
             builder.prependFactory(node) { _, _ ->
                 spanGenerator.createSpansForStyle(styleGroup.preStyle)
@@ -104,6 +116,13 @@ class MarkdownViewPlugin(
 
     private fun maybeApplyHeadingFactories(builder: MarkwonSpansFactory.Builder) {
         val headingStyleGroups = resolvedAttributes.headingStyleGroups
+        if (resolvedAttributes.mergeStyleGroups && headingStyleGroups.any(StyleGroup::hasStyle)) {
+            builder.setFactory(
+                Heading::class.java,
+                MergedHeadingSpanFactory(spanGenerator, headingStyleGroups)
+            )
+            return
+        }
         if (headingStyleGroups.any(StyleGroup::hasPreStyle)) {
             builder.prependFactory(
                 Heading::class.java, HeadingSpanFactory(
@@ -133,6 +152,13 @@ class MarkdownViewPlugin(
     private fun maybeApplyListFactories(builder: MarkwonSpansFactory.Builder) {
         val ordered = resolvedAttributes.orderedListItemStyleGroup
         val unordered = resolvedAttributes.unorderedListItemStyleGroup
+        if (resolvedAttributes.mergeStyleGroups && (ordered.hasStyle() || unordered.hasStyle())) {
+            builder.setFactory(
+                ListItem::class.java,
+                MergedListItemSpanFactory(spanGenerator, ordered, unordered)
+            )
+            return
+        }
         if (ordered.hasPreStyle() || unordered.hasPreStyle()) {
             builder.prependFactory(
                 ListItem::class.java, ListItemSpanFactory(
@@ -194,4 +220,40 @@ class MarkdownViewPlugin(
             return null
         }
     }
+
+    private class MergedListItemSpanFactory(
+        private val spanGenerator: SpanGenerator,
+        private val ordered: StyleGroup,
+        private val unordered: StyleGroup
+    ) : SpanFactory {
+        override fun getSpans(
+            configuration: MarkwonConfiguration,
+            props: RenderProps
+        ): Any? {
+            val type = CoreProps.LIST_ITEM_TYPE.require(props)
+            val styleGroup = if (CoreProps.ListItemType.ORDERED == type) ordered else unordered
+            return if (styleGroup.isEmpty()) {
+                null
+            } else {
+                spanGenerator.createSpansForStyleGroup(styleGroup)
+            }
+        }
+    }
+
+    private class MergedHeadingSpanFactory(
+        private val spanGenerator: SpanGenerator,
+        private val headingStyleGroups: List<StyleGroup>
+    ) : SpanFactory {
+        override fun getSpans(
+            configuration: MarkwonConfiguration,
+            props: RenderProps
+        ): Any? {
+            val styleGroup = headingStyleGroups[CoreProps.HEADING_LEVEL.require(props) - 1]
+            return if (styleGroup.isEmpty()) {
+                null
+            } else {
+                spanGenerator.createSpansForStyleGroup(styleGroup)
+            }
+        }
+    }
 }
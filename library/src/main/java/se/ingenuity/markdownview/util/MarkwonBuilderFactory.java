@@ -11,6 +11,9 @@ import androidx.annotation.StyleRes;
 import io.noties.markwon.Markwon;
 
 /**
+ * A view inflated with attributes never shares the {@link Markwon} of this factory with other
+ * views.
+ *
  * @deprecated Initialize builder using MarkwonBuilderFactory2
  */
 @Deprecated
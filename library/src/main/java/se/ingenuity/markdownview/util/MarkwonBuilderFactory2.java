@@ -10,6 +10,14 @@ import androidx.annotation.StyleRes;
 
 import io.noties.markwon.Markwon;
 
+/**
+ * Configures the {@link Markwon} of views naming the factory in {@code markwonFactoryBuilder}.
+ * <p>
+ * Views with the same theme, style and factory share one {@link Markwon}. A factory may read its
+ * own attributes from {@code attrs}, so by default a view inflated with attributes gets a
+ * {@link Markwon} of its own. Override {@link #getSharingKey(Context, AttributeSet)} to share
+ * again.
+ */
 public interface MarkwonBuilderFactory2 {
     void initBuilder(
             @NonNull Context context,
@@ -18,4 +26,14 @@ public interface MarkwonBuilderFactory2 {
             @StyleRes int defStyleRes,
             @NonNull Markwon.Builder builder
     );
+
+    /**
+     * @return a key with value semantics for everything {@link #initBuilder} reads from
+     * {@code attrs}, e.g. a constant if it reads nothing. Views whose keys are equal share a
+     * {@link Markwon}. Null, the default, never shares one built for {@code attrs}.
+     */
+    @Nullable
+    default Object getSharingKey(@NonNull Context context, @NonNull AttributeSet attrs) {
+        return null;
+    }
 }
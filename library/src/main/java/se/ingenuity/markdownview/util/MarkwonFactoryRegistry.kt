@@ -0,0 +1,95 @@
+package se.ingenuity.markdownview.util
+
+import java.lang.reflect.Constructor
+import java.lang.reflect.Modifier
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Process-wide lookup of `markwonFactoryBuilder` names. Reflection runs once per class loader and
+ * name and its outcome, including failures, is cached for every thread. Registered factories skip
+ * reflection altogether, whatever the class loader.
+ *
+ * Class loaders are held like the classes resolved from them, which keep their loader alive.
+ */
+internal object MarkwonFactoryRegistry {
+    private val registered = ConcurrentHashMap<String, Entry>()
+    private val resolved = ConcurrentHashMap<ClassLoader, ConcurrentHashMap<String, Entry>>()
+
+    fun register(name: String, factory: MarkwonBuilderFactory2) {
+        registered[name] = Entry.Singleton(factory)
+    }
+
+    /**
+     * @return the [MarkwonBuilderFactory2] or [MarkwonBuilderFactory] for [name]: the registered
+     * factory, the Kotlin object or a new instance of the class. Resolve once per view, every call
+     * creates a new instance of a class.
+     * @throws IllegalArgumentException if [name] does not resolve to a factory.
+     */
+    fun obtain(classLoader: ClassLoader, name: String): Any {
+        val entry = registered[name] ?: resolved
+            .getOrPut(classLoader) { ConcurrentHashMap() }
+            .getOrPut(name) { resolve(classLoader, name) }
+        return entry.get(name)
+    }
+
+    @Suppress("DEPRECATION")
+    private fun resolve(classLoader: ClassLoader, name: String): Entry {
+        return try {
+            val clazz = Class.forName(name, false, classLoader)
+            if (!MarkwonBuilderFactory2::class.java.isAssignableFrom(clazz) &&
+                !MarkwonBuilderFactory::class.java.isAssignableFrom(clazz)
+            ) {
+                return Entry.Failure(ClassCastException("$name is not a MarkwonBuilderFactory2"))
+            }
+            // Kotlin object
+            val instance = clazz.declaredFields
+                .find { it.name == "INSTANCE" && Modifier.isStatic(it.modifiers) }
+                ?.let { field ->
+                    try {
+                        field[null]
+                    } catch (ignore: IllegalAccessException) {
+                        null
+                    }
+                }
+            if (instance != null) {
+                Entry.Singleton(instance)
+            } else {
+                val constructor = clazz.getConstructor()
+                constructor.isAccessible = true
+                Entry.Instantiate(constructor)
+            }
+        } catch (e: ReflectiveOperationException) {
+            Entry.Failure(e)
+        }
+    }
+
+    private sealed class Entry {
+        abstract fun get(name: String): Any
+
+        class Singleton(private val instance: Any) : Entry() {
+            override fun get(name: String): Any = instance
+        }
+
+        class Instantiate(private val constructor: Constructor<*>) : Entry() {
+            override fun get(name: String): Any {
+                return try {
+                    constructor.newInstance()
+                } catch (e: ReflectiveOperationException) {
+                    throw IllegalArgumentException(
+                        "Could not inflate MarkwonBuilderFactory $name",
+                        e
+                    )
+                }
+            }
+        }
+
+        class Failure(private val cause: Exception) : Entry() {
+            override fun get(name: String): Any {
+                throw IllegalArgumentException(
+                    "Could not inflate MarkwonBuilderFactory $name",
+                    cause
+                )
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package se.ingenuity.markdownview.util
+
+import android.content.Context
+import android.content.res.Resources
+import android.os.Handler
+import android.os.Looper
+import android.util.AttributeSet
+import androidx.annotation.AttrRes
+import androidx.annotation.StyleRes
+import io.noties.markwon.Markwon
+import se.ingenuity.markdownview.R
+import java.lang.ref.WeakReference
+
+/**
+ * Process-wide registry of [Markwon] instances keyed on the effective style of a view. Views
+ * inflated with an equivalent configuration share one immutable [Markwon] and plugin graph.
+ *
+ * Entries are weakly referenced so a [Markwon] only lives as long as some view is using it, and
+ * themes are weakly referenced so the registry never keeps a [Context] alive.
+ *
+ * `markwonFactoryBuilder` factories may read their own attributes, a view with attributes and a
+ * factory only shares if the factory provides a [MarkwonBuilderFactory2.getSharingKey].
+ */
+internal object MarkwonRegistry {
+    /**
+     * [factoryKey] of views that must not share.
+     */
+    val UNSHAREABLE = Any()
+
+    private val entries = HashMap<Key, WeakReference<Markwon>>()
+
+    /**
+     * Prewarmed instances, strongly held until the first view obtains them or the main looper
+     * next goes idle. A pinned [Markwon] references the context it was built with, so it must
+     * not outlive the inflation it was prewarmed for.
+     */
+    private val pinned = HashMap<Key, Markwon>()
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    /**
+     * Ids of the attributes that affect how a [Markwon] is built. `markdown` is content and
+     * `markwonFactoryBuilder` is part of the key so neither prevents sharing.
+     */
+    private val STYLE_ATTRIBUTES: Set<Int> by lazy {
+        R.styleable.MarkdownTextView.toMutableSet().apply {
+            remove(R.attr.markdown)
+            remove(R.attr.markwonFactoryBuilder)
+        }
+    }
+
+    /**
+     * @param factoryKey [factoryKey] of the view.
+     */
+    fun obtain(
+        context: Context,
+        attrs: AttributeSet?,
+        @AttrRes defStyleAttr: Int,
+        @StyleRes defStyleRes: Int,
+        markwonFactoryBuilderClassName: String?,
+        factoryKey: Any?,
+        create: () -> Markwon
+    ): Markwon {
+        if (hasExplicitStyleAttributes(attrs)) {
+            // Inline overrides resolve their own configuration.
+            return create()
+        }
+        if (factoryKey === UNSHAREABLE) {
+            return create()
+        }
+
+        val key = Key(
+            context.theme,
+            defStyleAttr,
+            defStyleRes,
+            attrs?.styleAttribute ?: 0,
+            markwonFactoryBuilderClassName,
+            factoryKey
+        )
+        synchronized(entries) {
+            pinned.remove(key)
+            entries[key]?.get()?.also { return it }
+        }
+        return register(key, create)
+    }
+
+    /**
+     * Like [obtain] for a view inflated without attributes, but keeps the instance alive until a
+     * view obtains it or the main looper is idle after this call, i.e. until the inflation
+     * running when it returns is done.
+     */
+    fun prewarm(
+        context: Context,
+        @AttrRes defStyleAttr: Int,
+        @StyleRes defStyleRes: Int,
+        markwonFactoryBuilderClassName: String?,
+        create: () -> Markwon
+    ): Markwon {
+        val key = Key(
+            context.theme,
+            defStyleAttr,
+            defStyleRes,
+            0,
+            markwonFactoryBuilderClassName,
+            null
+        )
+        synchronized(entries) {
+            entries[key]?.get()?.also { return it }
+        }
+        val markwon = register(key, create)
+        synchronized(entries) {
+            pinned[key] = markwon
+        }
+        mainHandler.post {
+            Looper.myQueue().addIdleHandler {
+                synchronized(entries) {
+                    if (pinned[key] === markwon) {
+                        pinned.remove(key)
+                    }
+                }
+                false
+            }
+        }
+        return markwon
+    }
+
+    private fun register(key: Key, create: () -> Markwon): Markwon {
+        // Build outside of the lock, factories may be slow or inflate other views.
+        val markwon = create()
+        synchronized(entries) {
+            purge()
+            entries[key]?.get()?.also { return it }
+            entries[key] = WeakReference(markwon)
+        }
+        return markwon
+    }
+
+    fun hasExplicitStyleAttributes(attrs: AttributeSet?): Boolean {
+        if (attrs == null) {
+            return false
+        }
+        for (i in 0 until attrs.attributeCount) {
+            if (attrs.getAttributeNameResource(i) in STYLE_ATTRIBUTES) {
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * @param factory the resolved `markwonFactoryBuilder`, if any.
+     * @return what [factory] reads from [attrs], null if there is no factory or no attributes, or
+     * [UNSHAREABLE].
+     */
+    fun factoryKey(context: Context, attrs: AttributeSet?, factory: Any?): Any? {
+        if (factory == null || attrs == null) {
+            return null
+        }
+        return (factory as? MarkwonBuilderFactory2)?.getSharingKey(context, attrs) ?: UNSHAREABLE
+    }
+
+    private fun purge() {
+        val iterator = entries.entries.iterator()
+        while (iterator.hasNext()) {
+            val (key, value) = iterator.next()
+            if (key.isStale || value.get() == null) {
+                iterator.remove()
+            }
+        }
+    }
+
+    private class Key(
+        theme: Resources.Theme,
+        @AttrRes private val defStyleAttr: Int,
+        @StyleRes private val defStyleRes: Int,
+        @StyleRes private val styleAttribute: Int,
+        private val markwonFactoryBuilderClassName: String?,
+        private val factoryKey: Any?
+    ) {
+        private val themeRef = WeakReference(theme)
+        private val themeHash = System.identityHashCode(theme)
+
+        val isStale: Boolean
+            get() = themeRef.get() == null
+
+        override fun equals(other: Any?): Boolean {
+            if (this === other) return true
+            if (other !is Key) return false
+
+            val theme = themeRef.get()
+            return theme != null &&
+                    theme === other.themeRef.get() &&
+                    defStyleAttr == other.defStyleAttr &&
+                    defStyleRes == other.defStyleRes &&
+                    styleAttribute == other.styleAttribute &&
+                    markwonFactoryBuilderClassName == other.markwonFactoryBuilderClassName &&
+                    factoryKey == other.factoryKey
+        }
+
+        override fun hashCode(): Int {
+            var result = themeHash
+            result = 31 * result + defStyleAttr
+            result = 31 * result + defStyleRes
+            result = 31 * result + styleAttribute
+            result = 31 * result + (markwonFactoryBuilderClassName?.hashCode() ?: 0)
+            result = 31 * result + (factoryKey?.hashCode() ?: 0)
+            return result
+        }
+    }
+}
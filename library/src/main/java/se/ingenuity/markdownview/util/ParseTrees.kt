@@ -0,0 +1,89 @@
+package se.ingenuity.markdownview.util
+
+import io.noties.markwon.AbstractMarkwonPlugin
+import io.noties.markwon.Markwon
+import io.noties.markwon.MarkwonPlugin
+import io.noties.markwon.MarkwonVisitor
+import org.commonmark.node.Node
+import org.commonmark.parser.Parser
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Decides whether a commonmark tree parsed by one [Markwon] can be rendered by another. Plugins
+ * that only style, i.e. configure the theme, span factories or visitor, do not change the tree.
+ */
+internal object ParseTrees {
+    private val traits = ConcurrentHashMap<Class<*>, Int>()
+
+    /**
+     * Overrides `configureParser` or `processMarkdown`.
+     */
+    private const val PARSES = 1
+
+    /**
+     * Overrides `beforeRender` or `afterRender`, which may modify the tree while rendering it.
+     */
+    private const val MODIFIES_TREE = 2
+
+    /**
+     * @return true if a tree parsed by [parsedWith] renders the same with [renderWith] as if it
+     * had parsed the markdown itself.
+     */
+    fun canReuse(parsedWith: Markwon, renderWith: Markwon): Boolean {
+        if (modifiesTree(renderWith)) {
+            return false
+        }
+        val parsing = parsingPlugins(parsedWith)
+        val reparsing = parsingPlugins(renderWith)
+        return parsing.size == reparsing.size &&
+                parsing.indices.all { parsing[it] === reparsing[it] }
+    }
+
+    /**
+     * Like [canReuse] for a tree of which only the [fingerprint] of its [Markwon] is known.
+     * Parsing plugins are compared by class, the caller has to know that they are configured the
+     * same way, e.g. because both were built by the same factory for the same style.
+     */
+    fun canReuse(fingerprint: List<Class<*>>, renderWith: Markwon): Boolean {
+        return !modifiesTree(renderWith) && fingerprint == fingerprint(renderWith)
+    }
+
+    /**
+     * @return classes of the plugins of [markwon] that affect how it parses, comparable without
+     * holding on to the plugins and what they reference.
+     */
+    fun fingerprint(markwon: Markwon): List<Class<*>> {
+        return parsingPlugins(markwon).map { it.javaClass }
+    }
+
+    private fun parsingPlugins(markwon: Markwon): List<MarkwonPlugin> {
+        return markwon.plugins.filter { traitsOf(it) and PARSES != 0 }
+    }
+
+    private fun modifiesTree(markwon: Markwon): Boolean {
+        return markwon.plugins.any { traitsOf(it) and MODIFIES_TREE != 0 }
+    }
+
+    private fun traitsOf(plugin: MarkwonPlugin): Int {
+        return traits.getOrPut(plugin.javaClass) {
+            val clazz = plugin.javaClass
+            var traits = 0
+            if (overrides(clazz, "configureParser", Parser.Builder::class.java) ||
+                overrides(clazz, "processMarkdown", String::class.java)
+            ) {
+                traits = traits or PARSES
+            }
+            if (overrides(clazz, "beforeRender", Node::class.java) ||
+                overrides(clazz, "afterRender", Node::class.java, MarkwonVisitor::class.java)
+            ) {
+                traits = traits or MODIFIES_TREE
+            }
+            traits
+        }
+    }
+
+    private fun overrides(clazz: Class<*>, name: String, vararg parameterTypes: Class<*>): Boolean {
+        return clazz.getMethod(name, *parameterTypes).declaringClass !=
+                AbstractMarkwonPlugin::class.java
+    }
+}
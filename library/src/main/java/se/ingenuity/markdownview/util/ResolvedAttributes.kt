@@ -2,6 +2,7 @@ package se.ingenuity.markdownview.util
 
 import android.content.Context
 import android.content.res.ColorStateList
+import android.content.res.Resources
 import android.content.res.TypedArray
 import android.util.AttributeSet
 import androidx.annotation.AttrRes
@@ -9,8 +10,13 @@ import androidx.annotation.Dimension
 import androidx.annotation.StyleRes
 import androidx.annotation.StyleableRes
 import se.ingenuity.markdownview.R
+import java.lang.ref.WeakReference
 
-internal class ResolvedAttributes(
+/**
+ * The `MarkdownTextView` attributes of a view. Immutable, use [obtain] to share instances between
+ * views with the same effective style.
+ */
+internal class ResolvedAttributes private constructor(
     context: Context,
     attrs: AttributeSet?,
     @AttrRes defStyleAttr: Int,
@@ -39,6 +45,11 @@ internal class ResolvedAttributes(
     @Dimension
     val thematicBreakHeight: Int
 
+    /**
+     * Collapse the styles of a [StyleGroup] into one set of spans per node.
+     */
+    val mergeStyleGroups: Boolean
+
     init {
         val a = context.obtainStyledAttributes(
             attrs,
@@ -162,6 +173,7 @@ internal class ResolvedAttributes(
             R.styleable.MarkdownTextView_mdThematicBreakHeight,
             Constants.UNDEFINED_DIMEN
         )
+        mergeStyleGroups = a.getBoolean(R.styleable.MarkdownTextView_mdMergeStyleGroups, false)
         a.recycle()
     }
 
@@ -176,6 +188,8 @@ internal class ResolvedAttributes(
 
         fun hasPostStyle() = isStyleValid(postStyle)
 
+        fun isEmpty() = !hasPreStyle() && !hasStyle() && !hasPostStyle()
+
         companion object {
             private val EMPTY = StyleGroup(Constants.ID_NULL, Constants.ID_NULL, Constants.ID_NULL)
 
@@ -217,4 +231,73 @@ internal class ResolvedAttributes(
             }
         }
     }
+
+    /**
+     * Like the key of [MarkwonRegistry], the theme is weakly referenced and compared by identity.
+     * [Resources.Theme.equals] compares the applied styles, so the theme of an activity recreated
+     * for e.g. a night mode change would equal the old one while resolving to other colors.
+     */
+    private class Key(
+        theme: Resources.Theme,
+        @AttrRes private val defStyleAttr: Int,
+        @StyleRes private val defStyleRes: Int,
+        @StyleRes private val styleAttribute: Int
+    ) {
+        private val themeRef = WeakReference(theme)
+        private val themeHash = System.identityHashCode(theme)
+
+        val isStale: Boolean
+            get() = themeRef.get() == null
+
+        override fun equals(other: Any?): Boolean {
+            if (this === other) return true
+            if (other !is Key) return false
+
+            val theme = themeRef.get()
+            return theme != null &&
+                    theme === other.themeRef.get() &&
+                    defStyleAttr == other.defStyleAttr &&
+                    defStyleRes == other.defStyleRes &&
+                    styleAttribute == other.styleAttribute
+        }
+
+        override fun hashCode(): Int {
+            var result = themeHash
+            result = 31 * result + defStyleAttr
+            result = 31 * result + defStyleRes
+            result = 31 * result + styleAttribute
+            return result
+        }
+    }
+
+    companion object {
+        /**
+         * Interned attributes, guarded by itself.
+         */
+        private val interned = HashMap<Key, ResolvedAttributes>()
+
+        /**
+         * @return attributes for the given style, shared with views of the same theme and style
+         * unless [attrs] has inline style attributes.
+         */
+        fun obtain(
+            context: Context,
+            attrs: AttributeSet?,
+            @AttrRes defStyleAttr: Int,
+            @StyleRes defStyleRes: Int
+        ): ResolvedAttributes {
+            if (MarkwonRegistry.hasExplicitStyleAttributes(attrs)) {
+                return ResolvedAttributes(context, attrs, defStyleAttr, defStyleRes)
+            }
+            val key = Key(context.theme, defStyleAttr, defStyleRes, attrs?.styleAttribute ?: 0)
+            synchronized(interned) {
+                interned[key]?.also { return it }
+            }
+            val attributes = ResolvedAttributes(context, attrs, defStyleAttr, defStyleRes)
+            synchronized(interned) {
+                interned.keys.removeAll { it.isStale }
+                return interned.getOrPut(key) { attributes }
+            }
+        }
+    }
 }
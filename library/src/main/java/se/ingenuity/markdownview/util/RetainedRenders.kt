@@ -0,0 +1,176 @@
+package se.ingenuity.markdownview.util
+
+import android.content.pm.ActivityInfo
+import android.content.res.Configuration
+import android.content.res.Resources
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.util.LruCache
+import androidx.annotation.AttrRes
+import android.view.Choreographer
+import androidx.annotation.StyleRes
+import io.noties.markwon.Markwon
+import io.noties.markwon.core.spans.TextViewSpan
+import org.commonmark.node.Node
+
+/**
+ * Rendered markdown of views that saved their state while their activity was changing
+ * configurations, for the views that replace them. The rendered text is reused as is when only
+ * orientation or screen size changed and the view has the same theme, style and plugin classes.
+ * The parse tree is reused when the new [Markwon] parses the same way, see [ParseTrees].
+ *
+ * Themes are compared with [Resources.Theme.equals], i.e. by their applied styles where the
+ * platform supports it and by identity otherwise.
+ *
+ * Entries are looked up by markdown, consumed on use and bounded by their estimated size. They
+ * only live until the first frame after they were retained, the views of the recreated activity
+ * take them while it is created and laid out. Only used on the main thread.
+ */
+internal object RetainedRenders {
+    private const val MAX_SIZE_BYTES = 1 shl 22
+    private const val BYTES_PER_CHAR = 2
+
+    /**
+     * Rough estimate of a span object together with its start, end and flags entries.
+     */
+    private const val BYTES_PER_SPAN = 48
+
+    /**
+     * Configuration changes that leave rendered spans valid. Markdown styles that differ by
+     * orientation or screen size qualifiers are not re-resolved on such changes.
+     */
+    private const val SPAN_NEUTRAL_CHANGES = ActivityInfo.CONFIG_ORIENTATION or
+            ActivityInfo.CONFIG_SCREEN_SIZE or
+            ActivityInfo.CONFIG_SMALLEST_SCREEN_SIZE or
+            ActivityInfo.CONFIG_SCREEN_LAYOUT
+
+    private val entries = object : LruCache<String, Entry>(MAX_SIZE_BYTES) {
+        override fun sizeOf(key: String, value: Entry): Int = value.size
+    }
+
+    /**
+     * Entries retained since the last frame, dropped after the next one.
+     */
+    private var batch: Batch? = null
+
+    /**
+     * @param styleKey style of the view, null if it cannot be compared.
+     * @param spanned the rendered text, possibly already set on a text view.
+     */
+    fun retain(
+        markdown: String,
+        configuration: Configuration,
+        theme: Resources.Theme,
+        styleKey: StyleKey?,
+        markwon: Markwon,
+        spanned: Spanned?,
+        node: Node?
+    ) {
+        // Spans bound to the old view would keep it, and its activity, alive.
+        val text = spanned?.takeUnless { ViewBoundSpans.containedIn(it) }?.let { detach(it) }
+        if (text == null && node == null) {
+            return
+        }
+        val current = batch ?: Batch().also {
+            batch = it
+            scheduleExpiry(it)
+        }
+        // The parse tree is counted like the markdown it was parsed from.
+        var size = markdown.length * BYTES_PER_CHAR * 2
+        if (text != null) {
+            size += text.length * BYTES_PER_CHAR +
+                    text.getSpans(0, text.length, Any::class.java).size * BYTES_PER_SPAN
+        }
+        entries.put(
+            markdown,
+            Entry(
+                Configuration(configuration),
+                theme,
+                styleKey,
+                markwon.plugins.map { it.javaClass },
+                ParseTrees.fingerprint(markwon),
+                text,
+                node,
+                size,
+                current
+            )
+        )
+    }
+
+    /**
+     * @return what a view with this configuration can reuse for [markdown], or null.
+     */
+    fun take(
+        markdown: String,
+        configuration: Configuration,
+        theme: Resources.Theme,
+        styleKey: StyleKey?,
+        markwon: Markwon
+    ): Retained? {
+        val entry = entries.remove(markdown) ?: return null
+        val sameStyle = styleKey != null && styleKey == entry.styleKey
+        // Parsing plugins of the same classes are configured the same if built for the same style.
+        val node = entry.node?.takeIf {
+            (sameStyle || entry.parsingFingerprint.isEmpty()) &&
+                    ParseTrees.canReuse(entry.parsingFingerprint, markwon)
+        }
+        val spansValid = sameStyle &&
+                theme == entry.theme &&
+                entry.pluginClasses == markwon.plugins.map { it.javaClass } &&
+                entry.configuration.diff(configuration) and SPAN_NEUTRAL_CHANGES.inv() == 0
+        val spanned = if (spansValid) entry.spanned else null
+        return if (spanned != null || node != null) Retained(spanned, node) else null
+    }
+
+    /**
+     * Drops the entries of [batch] after the first frame of the recreated activity, which runs
+     * its first traversal in the frame following the one [batch] was retained in.
+     */
+    private fun scheduleExpiry(batch: Batch) {
+        Choreographer.getInstance().postFrameCallback {
+            if (this.batch === batch) {
+                this.batch = null
+            }
+            Choreographer.getInstance().postFrameCallback {
+                entries.snapshot().forEach { (markdown, entry) ->
+                    if (entry.batch === batch) {
+                        entries.remove(markdown)
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a copy of [spanned] without the spans tying it to the text view it was set on.
+     */
+    private fun detach(spanned: Spanned): Spanned {
+        val copy = SpannableStringBuilder(spanned)
+        copy.getSpans(0, copy.length, TextViewSpan::class.java).forEach { copy.removeSpan(it) }
+        return copy
+    }
+
+    data class StyleKey(
+        @AttrRes val defStyleAttr: Int,
+        @StyleRes val defStyleRes: Int,
+        @StyleRes val styleAttribute: Int,
+        val markwonFactoryBuilderClassName: String?,
+        val factoryKey: Any?
+    )
+
+    class Retained(val spanned: Spanned?, val node: Node?)
+
+    private class Entry(
+        val configuration: Configuration,
+        val theme: Resources.Theme,
+        val styleKey: StyleKey?,
+        val pluginClasses: List<Class<*>>,
+        val parsingFingerprint: List<Class<*>>,
+        val spanned: Spanned?,
+        val node: Node?,
+        val size: Int,
+        val batch: Batch
+    )
+
+    private class Batch
+}
@@ -5,23 +5,114 @@ import android.graphics.Canvas
 import android.graphics.Color
 import android.graphics.Paint
 import android.graphics.Rect
+import android.text.Editable
+import android.text.Layout
+import android.text.Spanned
 import android.text.style.BackgroundColorSpan
 import android.text.style.LineBackgroundSpan
+import android.util.SparseArray
 import android.util.TypedValue
 import android.view.Gravity
+import android.widget.TextView
 import androidx.annotation.ColorInt
 import androidx.annotation.Px
 import androidx.annotation.StyleRes
 import androidx.annotation.StyleableRes
 import io.noties.markwon.core.spans.TextViewSpan
 import se.ingenuity.markdownview.R
+import se.ingenuity.markdownview.util.ResolvedAttributes.StyleGroup
 import se.ingenuity.markdownview.util.span.TextAppearanceSpanCompat
 import java.util.*
 import kotlin.math.max
 import kotlin.math.min
 
+/**
+ * Creates the spans of markdown styles. Thread safe, spans may be created on any thread.
+ *
+ * Styles are resolved into immutable templates once, under a lock. Lookups read an immutable
+ * snapshot of the resolved templates and never touch the [Context].
+ */
 internal class SpanGenerator(private val context: Context) {
-    fun createSpansForStyle(@StyleRes style: Int): Array<Any?> {
+    private val lock = Any()
+
+    /**
+     * Resolved appearance data per style. Resolving a style means several TypedArray reads and
+     * possibly font loading so it is only done once, every node gets cheap copies of the template.
+     * Replaced rather than modified, see [obtainTemplate].
+     */
+    @Volatile
+    private var templates = SparseArray<StyleTemplate>()
+
+    /**
+     * Templates of merged style groups, replaced rather than modified like [templates].
+     */
+    @Volatile
+    private var groupTemplates: Map<StyleGroup, StyleTemplate> = emptyMap()
+
+    /**
+     * @return a span or an array of spans, as accepted by Markwon span factories.
+     */
+    fun createSpansForStyle(@StyleRes style: Int): Any {
+        return obtainTemplate(style).createSpans()
+    }
+
+    /**
+     * Like [createSpansForStyle] but for all styles of [group] at once. Their appearances are
+     * merged into one span and the backgrounds of the highest precedence style are used.
+     */
+    fun createSpansForStyleGroup(group: StyleGroup): Any {
+        return obtainGroupTemplate(group).createSpans()
+    }
+
+    private fun obtainGroupTemplate(group: StyleGroup): StyleTemplate {
+        groupTemplates[group]?.also { return it }
+        synchronized(lock) {
+            groupTemplates[group]?.also { return it }
+            val template = resolveGroupTemplate(group)
+            groupTemplates = HashMap(groupTemplates).apply { put(group, template) }
+            return template
+        }
+    }
+
+    private fun resolveGroupTemplate(group: StyleGroup): StyleTemplate {
+        // Lowest precedence first, as if registered with append, set and prepend.
+        val templates = intArrayOf(group.postStyle, group.style, group.preStyle)
+            .filter(StyleGroup::isStyleValid)
+            .map(::obtainTemplate)
+        var appearance: TextAppearanceSpanCompat? = null
+        var backgroundColor: Int? = null
+        var lineBackground: StyleTemplate? = null
+        for (template in templates) {
+            for (span in listOfNotNull(template.textAppearance, template.appearance)) {
+                appearance = appearance?.let { TextAppearanceSpanCompat(it, span) } ?: span
+            }
+            template.backgroundColor?.also { backgroundColor = it }
+            if (template.lineBackground != null) {
+                lineBackground = template
+            }
+        }
+        return StyleTemplate(
+            null,
+            appearance!!,
+            backgroundColor,
+            lineBackground?.lineBackground,
+            lineBackground?.lineBackgroundPadding ?: INTRINSIC_LINE_BACKGROUND_PADDING,
+            lineBackground?.lineBackgroundMode ?: LINE_BACKGROUND_MODE_LINE
+        )
+    }
+
+    private fun obtainTemplate(@StyleRes style: Int): StyleTemplate {
+        // A published SparseArray is never modified, so reading it needs no lock.
+        templates[style]?.also { return it }
+        synchronized(lock) {
+            templates[style]?.also { return it }
+            val template = resolveTemplate(style)
+            templates = templates.clone().apply { put(style, template) }
+            return template
+        }
+    }
+
+    private fun resolveTemplate(@StyleRes style: Int): StyleTemplate {
         var attributes = context.obtainStyledAttributes(style, TEXT_APPEARANCE_ATTR)
         @StyleRes val textAppearance = attributes.getResourceId(0, Constants.ID_NULL)
         attributes.recycle()
@@ -30,38 +121,97 @@ internal class SpanGenerator(private val context: Context) {
         val styleIsTextAppearance = attributes.getResourceId(0, Constants.ID_NULL) == textAppearance
         attributes.recycle()
 
-        val buffer = arrayOfNulls<Any>(5)
-        var index = 0
-        if (textAppearance != Constants.ID_NULL && !styleIsTextAppearance) {
-            buffer[index++] = TextAppearanceSpanCompat(context, textAppearance)
+        val textAppearanceSpan = if (textAppearance != Constants.ID_NULL && !styleIsTextAppearance) {
+            TextAppearanceSpanCompat(context, textAppearance)
+        } else {
+            null
         }
 
-        buffer[index++] = TextAppearanceSpanCompat(context, style)
-
         // Custom attributes
         attributes = context.obtainStyledAttributes(style, R.styleable.MarkdownTextView_Style)
-        if (attributes.hasValue(R.styleable.MarkdownTextView_Style_mdBackgroundColor)) {
-            buffer[index++] = BackgroundColorSpan(attributes.getColor(0, Color.TRANSPARENT))
-        }
+        val backgroundColor =
+            if (attributes.hasValue(R.styleable.MarkdownTextView_Style_mdBackgroundColor)) {
+                attributes.getColor(
+                    R.styleable.MarkdownTextView_Style_mdBackgroundColor,
+                    Color.TRANSPARENT
+                )
+            } else {
+                null
+            }
 
+        var lineBackground: Int? = null
+        var padding = INTRINSIC_LINE_BACKGROUND_PADDING
+        var lineBackgroundMode = LINE_BACKGROUND_MODE_LINE
         if (attributes.hasValue(R.styleable.MarkdownTextView_Style_mdLineBackground)) {
-            val lineBackground = attributes.getColor(
+            lineBackground = attributes.getColor(
                 R.styleable.MarkdownTextView_Style_mdLineBackground, Color.TRANSPARENT
             )
             val padAttrIndex = R.styleable.MarkdownTextView_Style_mdLineBackgroundPadding
-            var padding = INTRINSIC_LINE_BACKGROUND_PADDING
             if (attributes.getType(padAttrIndex) == TypedValue.TYPE_DIMENSION) {
                 padding = attributes.getDimensionPixelSize(
                     padAttrIndex,
                     INTRINSIC_LINE_BACKGROUND_PADDING
                 )
             }
-            buffer[index++] = PaddedLineBackgroundSpan(lineBackground, padding)
+            lineBackgroundMode = attributes.getInt(
+                R.styleable.MarkdownTextView_Style_mdLineBackgroundMode,
+                LINE_BACKGROUND_MODE_LINE
+            )
         }
         attributes.recycle()
-        buffer.fill(null, index, buffer.size)
-        buffer.reverse()
-        return buffer
+
+        return StyleTemplate(
+            textAppearanceSpan,
+            TextAppearanceSpanCompat(context, style),
+            backgroundColor,
+            lineBackground,
+            padding,
+            lineBackgroundMode
+        )
+    }
+
+    /**
+     * Immutable resolved style. Spans are mutable once set on text, so every call to
+     * [createSpans] returns new instances.
+     */
+    private class StyleTemplate(
+        val textAppearance: TextAppearanceSpanCompat?,
+        val appearance: TextAppearanceSpanCompat,
+        val backgroundColor: Int?,
+        val lineBackground: Int?,
+        @field:Px val lineBackgroundPadding: Int,
+        val lineBackgroundMode: Int
+    ) {
+        private val spanCount = (if (textAppearance != null) 1 else 0) +
+                1 +
+                (if (backgroundColor != null) 1 else 0) +
+                (if (lineBackground != null) 1 else 0)
+
+        fun createSpans(): Any {
+            val appearance = TextAppearanceSpanCompat(appearance)
+            if (spanCount == 1) {
+                return appearance
+            }
+
+            // Markwon applies spans in reverse, earlier entries take precedence.
+            val spans = arrayOfNulls<Any>(spanCount)
+            var index = 0
+            if (lineBackground != null) {
+                spans[index++] = if (lineBackgroundMode == LINE_BACKGROUND_MODE_BLOCK) {
+                    BlockLineBackgroundSpan(lineBackground, lineBackgroundPadding)
+                } else {
+                    PaddedLineBackgroundSpan(lineBackground, lineBackgroundPadding)
+                }
+            }
+            if (backgroundColor != null) {
+                spans[index++] = BackgroundColorSpan(backgroundColor)
+            }
+            spans[index++] = appearance
+            if (textAppearance != null) {
+                spans[index] = TextAppearanceSpanCompat(textAppearance)
+            }
+            return spans
+        }
     }
 
     /**
@@ -73,8 +223,6 @@ internal class SpanGenerator(private val context: Context) {
         @param:ColorInt private val mColor: Int,
         @param:Px private val mPadding: Int
     ) : LineBackgroundSpan {
-        private val mTextRect = Rect()
-        private val mContainerRect = Rect()
         override fun drawBackground(
             canvas: Canvas, paint: Paint,
             @Px left: Int, @Px right: Int,
@@ -84,39 +232,199 @@ internal class SpanGenerator(private val context: Context) {
         ) {
             val textView = TextViewSpan.textViewOf(text)
             val layout = textView!!.layout
+            // The span may be drawn on several threads, e.g. when rendered text is shared.
+            val scratch = SCRATCH.get()!!
+            val textRect = scratch.rect
+            val containerRect = scratch.containerRect
             val firstLine = lineNumber == 0
             val useIntrinsicPadding = mPadding == INTRINSIC_LINE_BACKGROUND_PADDING
 
             // Draw the background
-            mTextRect[left - (if (useIntrinsicPadding) textView.paddingLeft else mPadding), top - (if (firstLine) (if (useIntrinsicPadding) textView.paddingTop else mPadding) / 2 else 0), left + Math.round(
+            textRect[left - (if (useIntrinsicPadding) textView.paddingLeft else mPadding), top - (if (firstLine) (if (useIntrinsicPadding) textView.paddingTop else mPadding) / 2 else 0), left + Math.round(
                 layout.getLineWidth(lineNumber)
             ) + (if (useIntrinsicPadding) textView.paddingRight else mPadding)] =
                 bottom + if (useIntrinsicPadding) textView.paddingBottom else mPadding
-            mContainerRect[
-                    min(left, mTextRect.left),
-                    min(top, mTextRect.top),
-                    max(right, mTextRect.right)
-            ] = max(bottom, mTextRect.bottom)
+            containerRect[
+                    min(left, textRect.left),
+                    min(top, textRect.top),
+                    max(right, textRect.right)
+            ] = max(bottom, textRect.bottom)
             Gravity.apply(
                 textView.gravity,
-                mTextRect.width(),
-                mTextRect.height(),
-                mContainerRect,
+                textRect.width(),
+                textRect.height(),
+                containerRect,
                 0,
                 0,
-                mTextRect
+                textRect
             )
             val paintColor = paint.color
             paint.color = mColor
-            canvas.drawRect(mTextRect, paint)
+            canvas.drawRect(textRect, paint)
             paint.color = paintColor
         }
     }
 
+    /**
+     * Draws one background for all lines of the span, as wide as its widest line. The rectangle
+     * is computed once per layout and drawn with a single call from the first line of the span
+     * that is drawn, every other line returns right away.
+     *
+     * Spans are shared by every view showing the same rendered text, so measured [Block]s are
+     * kept per [Layout] rather than on the span. Editable text changes without a new layout, e.g.
+     * while streaming, so it is measured on every draw instead.
+     */
+    private class BlockLineBackgroundSpan(
+        @param:ColorInt private val color: Int,
+        @param:Px private val padding: Int
+    ) : LineBackgroundSpan {
+        /**
+         * Guarded by itself.
+         */
+        private val blocks = WeakHashMap<Layout, Block>()
+
+        override fun drawBackground(
+            canvas: Canvas, paint: Paint,
+            @Px left: Int, @Px right: Int,
+            @Px top: Int, @Px baseline: Int, @Px bottom: Int,
+            text: CharSequence, start: Int, end: Int,
+            lineNumber: Int
+        ) {
+            val textView = TextViewSpan.textViewOf(text) ?: return
+            val layout = textView.layout ?: return
+            val cacheable = text !is Editable
+            var block = if (cacheable) synchronized(blocks) { blocks[layout] } else null
+            if (block == null || !block.isMeasuredFor(layout, text)) {
+                val spanned = text as? Spanned ?: return
+                val spanStart = spanned.getSpanStart(this)
+                if (spanStart < 0) {
+                    return
+                }
+                val firstLine = layout.getLineForOffset(spanStart)
+                if (!isDrawnFrom(canvas, lineNumber, firstLine, top)) {
+                    return
+                }
+                val measured = measure(textView, layout, spanned, spanStart, firstLine, left, right)
+                if (cacheable) {
+                    synchronized(blocks) {
+                        blocks[layout] = measured
+                    }
+                }
+                block = measured
+            } else if (!isDrawnFrom(canvas, lineNumber, block.firstLine, top)) {
+                return
+            }
+
+            val paintColor = paint.color
+            paint.color = color
+            canvas.drawRect(block.rect, paint)
+            paint.color = paintColor
+        }
+
+        /**
+         * @return true if the block is drawn from [lineNumber], i.e. it is the first line of the
+         * span or lines above the clip, including the first, are not drawn.
+         */
+        private fun isDrawnFrom(
+            canvas: Canvas,
+            lineNumber: Int,
+            firstLine: Int,
+            @Px top: Int
+        ): Boolean {
+            if (lineNumber == firstLine) {
+                return true
+            }
+            val clipRect = SCRATCH.get()!!.clipRect
+            return canvas.getClipBounds(clipRect) && top <= clipRect.top
+        }
+
+        private fun measure(
+            textView: TextView,
+            layout: Layout,
+            spanned: Spanned,
+            spanStart: Int,
+            firstLine: Int,
+            @Px left: Int,
+            @Px right: Int
+        ): Block {
+            val spanEnd = spanned.getSpanEnd(this)
+            val lastLine = layout.getLineForOffset(max(spanStart, spanEnd - 1))
+            var width = 0f
+            for (line in firstLine..lastLine) {
+                width = max(width, layout.getLineWidth(line))
+            }
+
+            val useIntrinsicPadding = padding == INTRINSIC_LINE_BACKGROUND_PADDING
+            val paddingTop = if (useIntrinsicPadding) textView.paddingTop else padding
+            val top = layout.getLineTop(firstLine)
+            val bottom = layout.getLineBottom(lastLine)
+            val rect = Rect(
+                left - (if (useIntrinsicPadding) textView.paddingLeft else padding),
+                top - if (firstLine == 0) paddingTop / 2 else 0,
+                left + Math.round(width) +
+                        (if (useIntrinsicPadding) textView.paddingRight else padding),
+                bottom + (if (useIntrinsicPadding) textView.paddingBottom else padding)
+            )
+            val containerRect = SCRATCH.get()!!.containerRect
+            containerRect.set(
+                min(left, rect.left),
+                min(top, rect.top),
+                max(right, rect.right),
+                max(bottom, rect.bottom)
+            )
+            Gravity.apply(
+                textView.gravity,
+                rect.width(),
+                rect.height(),
+                containerRect,
+                0,
+                0,
+                rect
+            )
+            return Block(layout.width, layout.height, spanned.length, firstLine, rect)
+        }
+    }
+
+    /**
+     * Background rectangle of a [BlockLineBackgroundSpan] in a layout, together with the size of
+     * the layout and the length of the text it was measured for. Padding, gravity, text size or
+     * line spacing changes all make the text view create a new layout.
+     */
+    private class Block(
+        @Px private val layoutWidth: Int,
+        @Px private val layoutHeight: Int,
+        private val textLength: Int,
+        val firstLine: Int,
+        val rect: Rect
+    ) {
+        fun isMeasuredFor(layout: Layout, text: CharSequence): Boolean =
+            layout.width == layoutWidth && layout.height == layoutHeight &&
+                    text.length == textLength
+    }
+
+    /**
+     * Per-thread rectangles for computations during a draw.
+     */
+    private class Scratch {
+        val rect = Rect()
+        val containerRect = Rect()
+        val clipRect = Rect()
+    }
+
     companion object {
         private const val INTRINSIC_LINE_BACKGROUND_PADDING = -1
 
+        /**
+         * `mdLineBackgroundMode` values.
+         */
+        private const val LINE_BACKGROUND_MODE_LINE = 0
+        private const val LINE_BACKGROUND_MODE_BLOCK = 1
+
         @StyleableRes
         private val TEXT_APPEARANCE_ATTR = intArrayOf(android.R.attr.textAppearance)
+
+        private val SCRATCH = object : ThreadLocal<Scratch>() {
+            override fun initialValue() = Scratch()
+        }
     }
 }
@@ -0,0 +1,24 @@
+package se.ingenuity.markdownview.util
+
+import android.text.Spanned
+import io.noties.markwon.image.AsyncDrawableSpan
+
+/**
+ * Spans holding state or callbacks of the text view they are shown in. Rendered text containing
+ * them must not be handed to another view, its spans would be shared rather than copied.
+ */
+internal object ViewBoundSpans {
+    /**
+     * Async drawables invalidate the view they were last set on when loaded.
+     */
+    private val TYPES = arrayOf<Class<*>>(AsyncDrawableSpan::class.java)
+
+    fun containedIn(spanned: Spanned): Boolean {
+        for (type in TYPES) {
+            if (spanned.getSpans(0, spanned.length, type).isNotEmpty()) {
+                return true
+            }
+        }
+        return false
+    }
+}
@@ -194,6 +194,69 @@ public class TextAppearanceSpanCompat extends MetricAffectingSpan implements Lin
         mTextColor = textColor;
     }
 
+    /**
+     * Creates a copy of {@code source}. The resolved attributes are immutable so copying is cheap
+     * compared to resolving the appearance resource again.
+     */
+    public TextAppearanceSpanCompat(@NonNull TextAppearanceSpanCompat source) {
+        mFamilyName = source.mFamilyName;
+        mStyle = source.mStyle;
+        mTextSize = source.mTextSize;
+        mTextColor = source.mTextColor;
+        mTextColorLink = source.mTextColorLink;
+        mTypeface = source.mTypeface;
+        mTextFontWeight = source.mTextFontWeight;
+        mTextLocales = source.mTextLocales;
+        mShadowRadius = source.mShadowRadius;
+        mShadowDx = source.mShadowDx;
+        mShadowDy = source.mShadowDy;
+        mShadowColor = source.mShadowColor;
+        mHasLetterSpacing = source.mHasLetterSpacing;
+        mLetterSpacing = source.mLetterSpacing;
+        mLineHeight = source.mLineHeight;
+        mFontVariationSettings = source.mFontVariationSettings;
+    }
+
+    /**
+     * Creates a span with the same effect as {@code lower} followed by {@code higher}, i.e. the
+     * attributes {@code higher} specifies override those of {@code lower} while text styles add
+     * up.
+     */
+    public TextAppearanceSpanCompat(
+            @NonNull TextAppearanceSpanCompat lower,
+            @NonNull TextAppearanceSpanCompat higher) {
+        if (higher.mTypeface != null || higher.mFamilyName != null) {
+            mTypeface = higher.mTypeface;
+            mFamilyName = higher.mFamilyName;
+        } else {
+            mTypeface = lower.mTypeface;
+            mFamilyName = lower.mFamilyName;
+        }
+        mStyle = lower.mStyle | higher.mStyle;
+        mTextSize = higher.mTextSize > 0 ? higher.mTextSize : lower.mTextSize;
+        mTextColor = higher.mTextColor != null ? higher.mTextColor : lower.mTextColor;
+        mTextColorLink = higher.mTextColorLink != null
+                ? higher.mTextColorLink
+                : lower.mTextColorLink;
+        mTextFontWeight = higher.mTextFontWeight >= 0
+                ? higher.mTextFontWeight
+                : lower.mTextFontWeight;
+        mTextLocales = higher.mTextLocales != null ? higher.mTextLocales : lower.mTextLocales;
+
+        final TextAppearanceSpanCompat shadow = higher.mShadowColor != 0 ? higher : lower;
+        mShadowRadius = shadow.mShadowRadius;
+        mShadowDx = shadow.mShadowDx;
+        mShadowDy = shadow.mShadowDy;
+        mShadowColor = shadow.mShadowColor;
+
+        mHasLetterSpacing = higher.mHasLetterSpacing || lower.mHasLetterSpacing;
+        mLetterSpacing = higher.mHasLetterSpacing ? higher.mLetterSpacing : lower.mLetterSpacing;
+        mLineHeight = higher.mLineHeight >= 0 ? higher.mLineHeight : lower.mLineHeight;
+        mFontVariationSettings = higher.mFontVariationSettings != null
+                ? higher.mFontVariationSettings
+                : lower.mFontVariationSettings;
+    }
+
     @Override
     public void updateDrawState(@NonNull TextPaint ds) {
         updateMeasureState(ds);
@@ -224,14 +287,14 @@ public class TextAppearanceSpanCompat extends MetricAffectingSpan implements Lin
 
         final Typeface styledTypeface;
         if (mTypeface != null) {
-            styledTypeface = Typeface.create(mTypeface, style);
+            styledTypeface = TypefaceCache.create(mTypeface, style);
         } else if (mFamilyName != null || style != Typeface.NORMAL) {
             if (mFamilyName != null) {
-                styledTypeface = Typeface.create(mFamilyName, style);
+                styledTypeface = TypefaceCache.create(mFamilyName, style);
             } else if (currentTypeface == null) {
                 styledTypeface = Typeface.defaultFromStyle(style);
             } else {
-                styledTypeface = Typeface.create(currentTypeface, style);
+                styledTypeface = TypefaceCache.create(currentTypeface, style);
             }
         } else {
             styledTypeface = null;
@@ -242,7 +305,8 @@ public class TextAppearanceSpanCompat extends MetricAffectingSpan implements Lin
             if (mTextFontWeight >= 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
                 final int weight = Math.min(FONT_WEIGHT_MAX, mTextFontWeight);
                 final boolean italic = (style & Typeface.ITALIC) != 0;
-                readyTypeface = ds.setTypeface(Typeface.create(styledTypeface, weight, italic));
+                readyTypeface = ds.setTypeface(
+                        TypefaceCache.create(styledTypeface, weight, italic));
             } else {
                 readyTypeface = styledTypeface;
             }
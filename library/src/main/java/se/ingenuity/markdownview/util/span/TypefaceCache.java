@@ -0,0 +1,110 @@
+package se.ingenuity.markdownview.util.span;
+
+import android.graphics.Typeface;
+import android.os.Build;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide cache of styled typefaces. {@link TextAppearanceSpanCompat} styles a typeface on
+ * every measure and draw pass, which otherwise means {@link Typeface#create} calls per span and
+ * frame while scrolling or animating.
+ * <p>
+ * Lookups go through a map per base typeface or family name and a {@link SparseArray} per style,
+ * so a hit does not allocate. Base typefaces and the typefaces derived from them are weakly
+ * referenced, a derived typeface may be its base. Family names are bounded in number.
+ */
+final class TypefaceCache {
+    private static final int MAX_FAMILIES = 32;
+
+    /**
+     * Set in the keys of weight styled typefaces, plain style keys are the style itself.
+     */
+    private static final int WEIGHT_KEY = 1 << 30;
+
+    /**
+     * Guarded by itself.
+     */
+    private static final Map<Typeface, SparseArray<WeakReference<Typeface>>> BY_BASE =
+            new WeakHashMap<>();
+
+    /**
+     * Guarded by itself.
+     */
+    private static final LruCache<String, SparseArray<Typeface>> BY_FAMILY =
+            new LruCache<>(MAX_FAMILIES);
+
+    private TypefaceCache() {
+    }
+
+    @NonNull
+    static Typeface create(@NonNull Typeface base, int style) {
+        Typeface typeface = get(base, style);
+        if (typeface == null) {
+            typeface = Typeface.create(base, style);
+            put(base, style, typeface);
+        }
+        return typeface;
+    }
+
+    @NonNull
+    static Typeface create(@NonNull String familyName, int style) {
+        synchronized (BY_FAMILY) {
+            final SparseArray<Typeface> styles = BY_FAMILY.get(familyName);
+            final Typeface typeface = styles != null ? styles.get(style) : null;
+            if (typeface != null) {
+                return typeface;
+            }
+        }
+        final Typeface typeface = Typeface.create(familyName, style);
+        synchronized (BY_FAMILY) {
+            SparseArray<Typeface> styles = BY_FAMILY.get(familyName);
+            if (styles == null) {
+                styles = new SparseArray<>();
+                BY_FAMILY.put(familyName, styles);
+            }
+            styles.put(style, typeface);
+        }
+        return typeface;
+    }
+
+    @NonNull
+    @RequiresApi(api = Build.VERSION_CODES.P)
+    static Typeface create(@NonNull Typeface base, int weight, boolean italic) {
+        final int key = WEIGHT_KEY | weight << 1 | (italic ? 1 : 0);
+        Typeface typeface = get(base, key);
+        if (typeface == null) {
+            typeface = Typeface.create(base, weight, italic);
+            put(base, key, typeface);
+        }
+        return typeface;
+    }
+
+    @Nullable
+    private static Typeface get(@NonNull Typeface base, int key) {
+        synchronized (BY_BASE) {
+            final SparseArray<WeakReference<Typeface>> styles = BY_BASE.get(base);
+            final WeakReference<Typeface> reference = styles != null ? styles.get(key) : null;
+            return reference != null ? reference.get() : null;
+        }
+    }
+
+    private static void put(@NonNull Typeface base, int key, @NonNull Typeface typeface) {
+        synchronized (BY_BASE) {
+            SparseArray<WeakReference<Typeface>> styles = BY_BASE.get(base);
+            if (styles == null) {
+                styles = new SparseArray<>();
+                BY_BASE.put(base, styles);
+            }
+            styles.put(key, new WeakReference<>(typeface));
+        }
+    }
+}